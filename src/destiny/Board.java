@@ -1,6 +1,7 @@
 package destiny;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
 
 /**
@@ -100,27 +101,172 @@ public class Board
 	 */
 	private int[][] neighborhood;
 
+	/**
+	 * The eight surrounding points of each point (-1 where off the board),
+	 * in the order of the NEIGHBOR_* directions.
+	 * 
+	 * (Initialized upon construction.)
+	 */
+	private int[][] surroundings;
+
+	/**
+	 * For each of the 8 symmetries of the board (the rotations and
+	 * reflections, the identity first), the point each point is moved to.
+	 * 
+	 * (Initialized upon construction.)
+	 */
+	private int[][] symmetricPoints;
+
+	/**
+	 * The colors of the eight surrounding points of each point, packed two
+	 * bits per direction (at bit 2 * direction), with OFF_BOARD for points
+	 * off the edge. The low eight bits are the four adjacent points.
+	 */
+	private int[] neighborCode;
+
+	/** The directions of the surrounding points, as used in neighborCode. */
+	private static final int NEIGHBOR_RIGHT = 0, NEIGHBOR_BELOW = 1, NEIGHBOR_LEFT = 2,
+	        NEIGHBOR_ABOVE = 3, NEIGHBOR_BELOW_RIGHT = 4, NEIGHBOR_BELOW_LEFT = 5,
+	        NEIGHBOR_ABOVE_LEFT = 6, NEIGHBOR_ABOVE_RIGHT = 7;
+
+	/** The "color" of off-board points in neighborCode. */
+	private static final int OFF_BOARD = 3;
+
+	/**
+	 * For each neighborCode, the color (BLACK or WHITE bit) for which the
+	 * point is a real eye: every adjacent point is that color or off the
+	 * board, and there is no enemy stone on a diagonal (on the edge), or at
+	 * most one (in the middle of the board).
+	 */
+	private static final byte[] EYE_TABLE = new byte[1 << 16];
+
+	/**
+	 * For each code of the four adjacent points (the low eight bits of a
+	 * neighborCode), the color whose area an empty point with those
+	 * neighbors belongs to, or EMPTY if neither.
+	 */
+	private static final int[] AREA_TABLE = new int[1 << 8];
+
+	static
+	{
+		for (int code = 0; code < AREA_TABLE.length; code++)
+		{
+			boolean black = true;
+			boolean white = true;
+			for (int d = 0; d < 4; d++)
+			{
+				int c = (code >> (2 * d)) & 3;
+				black &= c == BLACK || c == OFF_BOARD;
+				white &= c == WHITE || c == OFF_BOARD;
+			}
+			// an all-off-board code can't happen, so black and white never
+			// are both true
+			AREA_TABLE[code] = black ? BLACK : white ? WHITE : EMPTY;
+		}
+
+		for (int code = 0; code < EYE_TABLE.length; code++)
+		{
+			int owner = AREA_TABLE[code & 0xff];
+			if (owner == EMPTY)
+				continue;
+			int enemyDiagonals = 0;
+			boolean edge = false;
+			for (int d = 4; d < 8; d++)
+			{
+				int c = (code >> (2 * d)) & 3;
+				if (c == OFF_BOARD)
+					edge = true;
+				else if (c == BLACK + WHITE - owner)
+					enemyDiagonals++;
+			}
+			if (enemyDiagonals == 0 || (!edge && enemyDiagonals == 1))
+				EYE_TABLE[code] = (byte) owner;
+		}
+	}
+
+	/**
+	 * The number of stones of each color on the board; stones[EMPTY] is the
+	 * number of empty points.
+	 */
+	private int[] stones;
+
+	/**
+	 * The number of empty points that belong to each color's area;
+	 * territory[EMPTY] is the number of empty points that belong to neither.
+	 */
+	private int[] territory;
+
 	/**
 	 * An array of vacant points for easily choosing a random move. Initially
 	 * includes every point on the board and shrinks as more stones are placed.
 	 */
 	private ArrayList<Integer> emptyPoints;
 
+	/**
+	 * Every move played on this board so far, including passes, in order. Only
+	 * the first moveCount entries are used.
+	 */
+	private int[] moves;
+
+	/** The number of moves played on this board so far. */
+	private int moveCount;
+
+	/**
+	 * The Zobrist hash of the position: the stones on the board and whose
+	 * turn it is.
+	 */
+	private long hash;
+
+	/** The widest board there can be (the most GTP allows). */
+	public static final int MAX_WIDTH = 25;
+
+	/**
+	 * Random keys for the Zobrist hash, indexed by color and point, big enough
+	 * for the widest board. The seed is fixed so hashes mean the same thing in
+	 * every process (they're stored in opening books).
+	 */
+	private static final long[][] ZOBRIST = new long[3][MAX_WIDTH * MAX_WIDTH];
+
+	/** The Zobrist key XORed in when it's WHITE's turn. */
+	private static final long ZOBRIST_WHITE_TO_MOVE;
+
+	static
+	{
+		// the keys for the first 19x19 points come first, as they did when
+		// that was the limit, so existing books keep their hashes
+		Random zr = new Random(0x44657374696e79L);
+		for (int c = BLACK; c <= WHITE; c++)
+			for (int pt = 0; pt < 19 * 19; pt++)
+				ZOBRIST[c][pt] = zr.nextLong();
+		ZOBRIST_WHITE_TO_MOVE = zr.nextLong();
+		for (int c = BLACK; c <= WHITE; c++)
+			for (int pt = 19 * 19; pt < ZOBRIST[c].length; pt++)
+				ZOBRIST[c][pt] = zr.nextLong();
+	}
+
 	/** The value of a PASS move. */
 	public static final int PASS = -1;
 
 	/** A random number generator. */
 	private Random r = new Random();
 
+	/** How long a playout may go on, in moves per point of the board. */
+	private static final int MAX_PLAYOUT_MOVES_PER_POINT = 3;
+
+	/** Scratch space for playOut(), not copied with the board. */
+	private int[] playoutBuffer;
+
 	/** Constructs a (deep) copy of the given Board. */
 	public Board(Board that)
 	{
 		this.copyFrom(that);
 	}
 
-	/** Makes an empty Board of the given width. */
+	/** Makes an empty Board of the given width, from 1 to MAX_WIDTH. */
 	public Board(int width)
 	{
+		if (width < 1 || width > MAX_WIDTH)
+			throw new IllegalArgumentException("Unsupported board width: " + width);
 		this.koPoint = -1;
 		this.komi = 7.5;
 		this.playerToMove = BLACK;
@@ -134,6 +280,9 @@ public class Board
 		this.libSum = new int[this.area];
 		this.libSquareSum = new int[this.area];
 
+		this.moves = new int[this.area];
+		this.moveCount = 0;
+
 		this.emptyPoints = new ArrayList<Integer>(area);
 		for (int pt = 0; pt < area; pt++)
 		{
@@ -147,6 +296,9 @@ public class Board
 			this.libCount[i] = -1;
 		}
 
+		this.stones = new int[] { area, 0, 0 };
+		this.territory = new int[] { area, 0, 0 };
+
 		neighborhood = new int[this.area][4];
 		for (int p = 0; p < area; p++)
 		{
@@ -159,6 +311,41 @@ public class Board
 			neighborhood[p][2] = l;
 			neighborhood[p][3] = u;
 		}
+
+		symmetricPoints = new int[8][this.area];
+		for (int p = 0; p < area; p++)
+		{
+			int row = p / width;
+			int col = p % width;
+			int last = width - 1;
+			symmetricPoints[0][p] = p;
+			symmetricPoints[1][p] = col * width + (last - row);
+			symmetricPoints[2][p] = (last - row) * width + (last - col);
+			symmetricPoints[3][p] = (last - col) * width + row;
+			symmetricPoints[4][p] = row * width + (last - col);
+			symmetricPoints[5][p] = (last - row) * width + col;
+			symmetricPoints[6][p] = col * width + row;
+			symmetricPoints[7][p] = (last - col) * width + (last - row);
+		}
+
+		surroundings = new int[this.area][8];
+		neighborCode = new int[this.area];
+		for (int p = 0; p < area; p++)
+		{
+			for (int d = 0; d < 4; d++)
+				surroundings[p][d] = neighborhood[p][d];
+			int r = pointRightOf(p);
+			int l = pointLeftOf(p);
+			surroundings[p][NEIGHBOR_BELOW_RIGHT] = r == -1 ? -1 : pointBelow(r);
+			surroundings[p][NEIGHBOR_BELOW_LEFT] = l == -1 ? -1 : pointBelow(l);
+			surroundings[p][NEIGHBOR_ABOVE_LEFT] = l == -1 ? -1 : pointAbove(l);
+			surroundings[p][NEIGHBOR_ABOVE_RIGHT] = r == -1 ? -1 : pointAbove(r);
+			for (int d = 0; d < 8; d++)
+			{
+				if (surroundings[p][d] == -1)
+					neighborCode[p] |= OFF_BOARD << (2 * d);
+			}
+		}
 	}
 
 	public int area()
@@ -179,6 +366,20 @@ public class Board
 		return pt;
 	}
 
+	/** @return the stones in the chain of the given stone. */
+	public ArrayList<Integer> chain(int pt)
+	{
+		ArrayList<Integer> chain = new ArrayList<Integer>();
+		int x = pt;
+		do
+		{
+			chain.add(x);
+			x = next[x];
+		}
+		while (x != pt);
+		return chain;
+	}
+
 	/** @return the column index of the given point. */
 	public int columnIndex(int pt)
 	{
@@ -193,13 +394,74 @@ public class Board
 		next[ptB] = t;
 	}
 
+	/**
+	 * @return the color whose area the given empty point belongs to, or EMPTY
+	 *         if neither.
+	 */
+	private int areaOwner(int pt)
+	{
+		return AREA_TABLE[neighborCode[pt] & 0xff];
+	}
+
+	/** @return the color of the stone on the given point, or EMPTY if none. */
+	public int color(int pt)
+	{
+		return color[pt];
+	}
+
+	/**
+	 * @return the color of the stone on the given point, or for an empty point,
+	 *         the color whose area it belongs to (EMPTY if neither).
+	 */
+	public int owner(int pt)
+	{
+		return color[pt] != EMPTY ? color[pt] : areaOwner(pt);
+	}
+
+	/**
+	 * Changes the color of the given point, keeping the stone and area counts
+	 * and the neighbor codes of the surrounding points up to date.
+	 */
+	private void setColor(int pt, int c)
+	{
+		int old = color[pt];
+		if (old == EMPTY)
+			territory[areaOwner(pt)]--;
+		stones[old]--;
+
+		int[] around = surroundings[pt];
+		for (int d = 0; d < 8; d++)
+		{
+			int n = around[d];
+			if (n == -1)
+				continue;
+
+			// we are in the opposite direction from n
+			int shift = 2 * (d ^ 2);
+			boolean empty = d < 4 && color[n] == EMPTY;
+			if (empty)
+				territory[areaOwner(n)]--;
+			neighborCode[n] = (neighborCode[n] & ~(3 << shift)) | (c << shift);
+			if (empty)
+				territory[areaOwner(n)]++;
+		}
+
+		color[pt] = c;
+		stones[c]++;
+		if (c == EMPTY)
+			territory[areaOwner(pt)]++;
+	}
+
 	/** Makes this a (deep) copy of the given Board. */
 	public void copyFrom(Board that)
 	{
-		// don't make a deep copy of this
+		// don't make a deep copy of these
 		this.neighborhood = that.neighborhood;
+		this.surroundings = that.surroundings;
+		this.symmetricPoints = that.symmetricPoints;
 
 		this.koPoint = that.koPoint;
+		this.hash = that.hash;
 		this.komi = that.komi;
 		this.playerToMove = that.playerToMove;
 		this.lastMoveWasPass = that.lastMoveWasPass;
@@ -208,22 +470,38 @@ public class Board
 		this.width = that.width;
 		this.area = that.area;
 
-		this.color = new int[this.area];
-		this.next = new int[this.area];
-		this.libCount = new int[this.area];
-		this.libSum = new int[this.area];
-		this.libSquareSum = new int[this.area];
-
-		this.emptyPoints = new ArrayList<Integer>(that.emptyPoints);
-
-		for (int i = 0; i < area; i++)
+		// reuse our arrays if they're the right size, so a scratch board can
+		// be copied into over and over without allocating
+		if (this.color == null || this.color.length != this.area)
 		{
-			this.color[i] = that.color[i];
-			this.next[i] = that.next[i];
-			this.libCount[i] = that.libCount[i];
-			this.libSum[i] = that.libSum[i];
-			this.libSquareSum[i] = that.libSquareSum[i];
+			this.color = new int[this.area];
+			this.next = new int[this.area];
+			this.libCount = new int[this.area];
+			this.libSum = new int[this.area];
+			this.libSquareSum = new int[this.area];
+			this.neighborCode = new int[this.area];
+			this.stones = new int[3];
+			this.territory = new int[3];
+			this.emptyPoints = new ArrayList<Integer>(this.area);
 		}
+
+		System.arraycopy(that.color, 0, this.color, 0, area);
+		System.arraycopy(that.next, 0, this.next, 0, area);
+		System.arraycopy(that.libCount, 0, this.libCount, 0, area);
+		System.arraycopy(that.libSum, 0, this.libSum, 0, area);
+		System.arraycopy(that.libSquareSum, 0, this.libSquareSum, 0, area);
+		System.arraycopy(that.neighborCode, 0, this.neighborCode, 0, area);
+		System.arraycopy(that.stones, 0, this.stones, 0, 3);
+		System.arraycopy(that.territory, 0, this.territory, 0, 3);
+
+		this.emptyPoints.clear();
+		for (int i = 0; i < that.emptyPoints.size(); i++)
+			this.emptyPoints.add(that.emptyPoints.get(i));
+
+		if (this.moves == null || this.moves.length < that.moveCount)
+			this.moves = new int[that.moves.length];
+		System.arraycopy(that.moves, 0, this.moves, 0, that.moveCount);
+		this.moveCount = that.moveCount;
 	}
 
 	public ArrayList<Integer> emptyPoints()
@@ -231,6 +509,50 @@ public class Board
 		return emptyPoints;
 	}
 
+	/** @return the i-th move played on this board (PASS for a pass). */
+	public int move(int i)
+	{
+		return moves[i];
+	}
+
+	/** @return the last move played on this board, or PASS if there is none. */
+	public int lastMove()
+	{
+		return moveCount == 0 ? PASS : moves[moveCount - 1];
+	}
+
+	/** @return the number of moves played on this board so far. */
+	public int moveCount()
+	{
+		return moveCount;
+	}
+
+	/** Adds the given move to the end of the move list. */
+	private void recordMove(int pt)
+	{
+		if (moveCount == moves.length)
+			moves = Arrays.copyOf(moves, 2 * moves.length);
+		moves[moveCount++] = pt;
+	}
+
+	/** @return the Zobrist hash of the stones on the board and the player to move. */
+	public long hash()
+	{
+		return hash;
+	}
+
+	/** @return the point that can't be played because of ko, or -1 if none. */
+	public int koPoint()
+	{
+		return koPoint;
+	}
+
+	/** @return true if the last move was a pass. */
+	public boolean lastMoveWasPass()
+	{
+		return lastMoveWasPass;
+	}
+
 	public boolean gameIsOver()
 	{
 		return gameIsOver;
@@ -300,6 +622,108 @@ public class Board
 		return play(pt, false);
 	}
 
+	/**
+	 * Puts every legal move for the player to move (other than PASS, which is
+	 * always legal) into the given buffer, which must hold at least area()
+	 * points.
+	 * 
+	 * This uses the same ko and suicide tests as play(), but never changes or
+	 * copies the board, so it costs only as much as there are empty points.
+	 * 
+	 * @return the number of legal moves put in the buffer.
+	 */
+	public int legalMoves(int[] buffer)
+	{
+		int count = 0;
+		for (int i = 0; i < emptyPoints.size(); i++)
+		{
+			int pt = emptyPoints.get(i);
+			if (play(pt, false))
+				buffer[count++] = pt;
+		}
+		return count;
+	}
+
+	/**
+	 * Like legalMoves(), but when the position is symmetric, only puts the
+	 * first of each set of moves that are symmetric to one another into the
+	 * buffer, since they all lead to the same position turned around.
+	 * 
+	 * @return the number of moves put in the buffer.
+	 */
+	public int distinctLegalMoves(int[] buffer)
+	{
+		int count = legalMoves(buffer);
+		int symmetries = symmetries();
+		if (symmetries == 1)
+			return count;
+		int distinct = 0;
+		for (int i = 0; i < count; i++)
+		{
+			if (canonicalPoint(buffer[i], symmetries) == buffer[i])
+				buffer[distinct++] = buffer[i];
+		}
+		return distinct;
+	}
+
+	/**
+	 * @return the symmetries of the board that leave the position as it is, as
+	 *         a bit mask over the symmetries of symmetricPoints. The identity,
+	 *         bit 0, is always set.
+	 */
+	public int symmetries()
+	{
+		int symmetries = 1;
+		for (int s = 1; s < 8; s++)
+		{
+			int[] map = symmetricPoints[s];
+			if (koPoint != -1 && map[koPoint] != koPoint)
+				continue;
+			boolean same = true;
+			for (int pt = 0; pt < area && same; pt++)
+				same = color[map[pt]] == color[pt];
+			if (same)
+				symmetries |= 1 << s;
+		}
+		return symmetries;
+	}
+
+	/**
+	 * @return the smallest of the points the given point is moved to by the
+	 *         given symmetries, which is the same for every point they move it
+	 *         to.
+	 */
+	public int canonicalPoint(int pt, int symmetries)
+	{
+		int canonical = pt;
+		for (int s = 1; s < 8; s++)
+		{
+			if ((symmetries & 1 << s) != 0)
+				canonical = Math.min(canonical, symmetricPoints[s][pt]);
+		}
+		return canonical;
+	}
+
+	/** @return the point the given symmetry of symmetricPoints moves pt to. */
+	public int symmetricPoint(int pt, int symmetry)
+	{
+		return symmetricPoints[symmetry][pt];
+	}
+
+	/**
+	 * @return one of the given symmetries that moves the point from to the
+	 *         point to, or -1 if none does.
+	 */
+	public int symmetryTaking(int from, int to, int symmetries)
+	{
+		for (int s = 0; s < 8; s++)
+		{
+			if ((symmetries & 1 << s) != 0 && symmetricPoints[s][from] == to)
+				return s;
+		}
+		return -1;
+	}
+
 	public int offBoardNeighbors(int pt)
 	{
 		int offBoardNeighbors = 0;
@@ -314,10 +738,14 @@ public class Board
 		return offBoardNeighbors;
 	}
 
+	/**
+	 * @return true if the given empty point is a real eye for color c: all its
+	 *         neighbors are c, and enough of its diagonals are too that it
+	 *         can't be made false.
+	 */
 	public boolean isRealEye(int pt, int c)
 	{
-		// to be a real eye, all adj. neighbors must be same color
-		return neighborsAreAll(pt, c);
+		return (EYE_TABLE[neighborCode[pt]] & c) != 0;
 	}
 
 	public boolean neighborsAreAll(int p, int c)
@@ -341,9 +769,11 @@ public class Board
 			if (actuallyPlayIt)
 			{
 				playerToMove = BLACK + WHITE - playerToMove;
+				hash ^= ZOBRIST_WHITE_TO_MOVE;
 				if (lastMoveWasPass)
 					gameIsOver = true;
 				lastMoveWasPass = true;
+				recordMove(PASS);
 			}
 			return true;
 		}
@@ -391,7 +821,8 @@ public class Board
 			return true;
 
 		// place the stone & remove its pt from the list of empty pts
-		color[pt] = playerToMove;
+		setColor(pt, playerToMove);
+		hash ^= ZOBRIST[playerToMove][pt];
 		emptyPoints.remove(new Integer(pt));
 		next[pt] = pt; // make it link to itself
 
@@ -455,6 +886,9 @@ public class Board
 			koPoint = -1;
 
 		playerToMove = BLACK + WHITE - playerToMove;
+		hash ^= ZOBRIST_WHITE_TO_MOVE;
+		lastMoveWasPass = false;
+		recordMove(pt);
 		return true;
 	}
 
@@ -519,35 +953,68 @@ public class Board
 		return capturePoints;
 	}
 
+	/** @return the liberties of the player to move's chains that are in atari. */
+	public ArrayList<Integer> escapePoints()
+	{
+		ArrayList<Integer> escapePoints = new ArrayList<Integer>();
+		for (int pt = 0; pt < area(); pt++)
+			if (color[pt] == playerToMove && isInAtari(pt))
+				escapePoints.add(soleLiberty(pt));
+		return escapePoints;
+	}
+
 	/**
 	 * Executes a random playout from the current position and returns the
 	 * winner, or EMPTY if there is a tie.
-	 * 
-	 * Also, adds all points played by the winner
 	 */
 	public int randomPlayout()
 	{
-		Board copy = new Board(this);
+		return new Board(this).playOut();
+	}
 
-		while (!copy.gameIsOver)
+	/**
+	 * Plays random moves on this board until the game is over, and returns the
+	 * winner. Unlike randomPlayout(), this changes the board itself, so a
+	 * scratch board can be reused for many playouts without allocating.
+	 * 
+	 * Since only real eyes are spared, stones on a tiny board can be captured
+	 * and replayed forever; after MAX_PLAYOUT_MOVES_PER_POINT moves per point,
+	 * the playout is scored as it stands.
+	 */
+	public int playOut()
+	{
+		int movesLeft = MAX_PLAYOUT_MOVES_PER_POINT * area;
+		// the points we haven't tried yet this turn are kept at the front of
+		// this buffer, and each one that fails is swapped to the back
+		if (playoutBuffer == null || playoutBuffer.length < area)
+			playoutBuffer = new int[area];
+		int[] candidates = playoutBuffer;
+
+		while (!gameIsOver && movesLeft-- > 0)
 		{
-			ArrayList<Integer> legalMoves = new ArrayList<Integer>(copy.emptyPoints);
-			do
+			int remaining = emptyPoints.size();
+			for (int i = 0; i < remaining; i++)
+				candidates[i] = emptyPoints.get(i);
+
+			boolean played = false;
+			while (remaining > 0)
 			{
-				int randomPt = legalMoves.get(r.nextInt(legalMoves.size()));
+				int i = r.nextInt(remaining);
+				int randomPt = candidates[i];
 
-				if (!copy.isRealEye(randomPt, playerToMove) && copy.play(randomPt, true))
+				if (!isRealEye(randomPt, playerToMove) && play(randomPt, true))
+				{
+					played = true;
 					break;
-				else
-					legalMoves.remove(new Integer(randomPt));
+				}
+				candidates[i] = candidates[--remaining];
 			}
-			while (legalMoves.size() > 0);
 
-			if (legalMoves.size() == 0)
-				copy.play(PASS, true);
+			if (!played)
+				play(PASS, true);
 		}
 
-		return copy.winner();
+		return score(WHITE) > score(BLACK) ? WHITE : BLACK;
 	}
 
 	/**
@@ -569,7 +1036,8 @@ public class Board
 			int t = next[x];
 
 			// remove the current stone
-			color[x] = EMPTY;
+			setColor(x, EMPTY);
+			hash ^= ZOBRIST[chainColor][x];
 			emptyPoints.add(x);
 			count++;
 			next[x] = -1;
@@ -600,20 +1068,19 @@ public class Board
 		return width - 1 - pt / width;
 	}
 
-	/** Returns the score of a fully played out game for player. */
+	/**
+	 * Returns the score of a fully played out game for player: stones plus
+	 * empty points surrounded only by that player, plus komi.
+	 * 
+	 * The counts are kept up to date as stones are played and captured, so
+	 * this is cheap, and it can also be used as a rough score mid-game.
+	 */
 	public double score(int c)
 	{
 		if (c == EMPTY)
 			throw new RuntimeException("Invalid color: EMPTY!");
 
-		int score = 0;
-		for (int p = 0; p < area; p++)
-		{
-			if (color[p] == c)
-				score++;
-			else if (color[p] == EMPTY && neighborsAreAll(p, c))
-				score++;
-		}
+		int score = stones[c] + territory[c];
 
 		if (c == BLACK)
 			return score - komi / 2.0;
@@ -645,16 +1112,25 @@ public class Board
 		return s;
 	}
 
+	/**
+	 * @return the point with the given name, like "C4", or PASS.
+	 * @throws IllegalArgumentException
+	 *             if there's no such point on this board.
+	 */
 	public int stringToPoint(String s)
 	{
 		if (s.equals("PASS"))
 			return PASS;
+		if (s.length() < 2 || s.charAt(0) == 'I')
+			throw new IllegalArgumentException("Not a point: " + s);
 		char letter = s.charAt(0);
 		int colIndex = letter - 'A';
 		if (letter > 'H')
 			colIndex--;
 		int rowIndex = width() - Integer.parseInt(s.substring(1));
 		// rowIndex--;
+		if (colIndex < 0 || colIndex >= width() || rowIndex < 0 || rowIndex >= width())
+			throw new IllegalArgumentException("Not a point: " + s);
 		return pointFromRowAndColumn(rowIndex, colIndex);
 	}
 
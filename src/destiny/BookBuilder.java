@@ -0,0 +1,76 @@
+package destiny;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import static destiny.Board.PASS;
+
+/**
+ * Grows an opening book offline by self-play.
+ *
+ * Each game is searched as usual, and after every search for the first few
+ * moves the root's children are added to the book. If the book file
+ * already exists its entries are kept and added to.
+ *
+ * Usage: BookBuilder book-file games [width [playouts [moves]]]
+ */
+public class BookBuilder
+{
+	/**
+	 * How many levels of each search tree are added to the book. Deeper levels
+	 * would count the same playouts again, since a child's visits already
+	 * include its children's.
+	 */
+	private static final int TREE_DEPTH = 1;
+
+	/** Children with fewer visits than this are left out of the book. */
+	private static final int MIN_VISITS = 50;
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 2)
+		{
+			System.err.println("usage: BookBuilder book-file games [width [playouts [moves]]]");
+			System.exit(1);
+		}
+
+		String path = args[0];
+		int games = Integer.parseInt(args[1]);
+		int width = args.length > 2 ? Integer.parseInt(args[2]) : 9;
+		int playouts = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+		int moves = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+
+		OpeningBook.Builder builder = new OpeningBook.Builder(width);
+		if (new File(path).exists())
+			builder.addBook(new OpeningBook(path));
+
+		for (int game = 0; game < games; game++)
+		{
+			TreeNode root = new TreeNode(new Board(width));
+			for (int move = 0; move < moves && !root.board().gameIsOver(); move++)
+			{
+				for (int i = 0; i < playouts; i++)
+					root.singleIteration();
+				builder.addTree(root, TREE_DEPTH, MIN_VISITS);
+				int pt = root.favoriteMove();
+				System.err.print(root.board().pointToString(pt) + " ");
+				if (pt == PASS)
+					break;
+				root.chooseMove(pt);
+
+				// start each search from scratch, so that the statistics
+				// kept from the last one aren't added to the book twice
+				root = new TreeNode(root.board());
+			}
+			System.err.println("(game " + (game + 1) + " of " + games + ")");
+		}
+
+		// write next to the old book and then replace it, since it's mapped
+		Path tmp = Path.of(path + ".tmp");
+		builder.write(tmp.toString());
+		Files.move(tmp, Path.of(path), StandardCopyOption.REPLACE_EXISTING);
+	}
+}
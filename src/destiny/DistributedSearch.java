@@ -0,0 +1,201 @@
+package destiny;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Root-parallel search spread over several SearchWorker processes.
+ *
+ * Each worker is sent the current position and searches it with its own tree
+ * while we search our own tree locally. Afterwards the workers' statistics
+ * for the root's children are added into our root, so the move is chosen
+ * from all of the playouts together. Nothing in TreeNode's decision logic
+ * needs to know the playouts came from elsewhere.
+ *
+ * The workers are told to stop as soon as our own search ends, whether it ran
+ * its iterations or was interrupted. All socket I/O happens on a thread of
+ * its own that is never interrupted, since interrupting a thread in the
+ * middle of a channel read or write closes the channel.
+ */
+public class DistributedSearch
+{
+	/** A connection to one worker. */
+	private static class Worker
+	{
+		String address;
+		SocketChannel channel;
+		DataInputStream in;
+		DataOutputStream out;
+
+		Worker(String address) throws IOException
+		{
+			this.address = address;
+			channel = Sockets.connect(address);
+			in = new DataInputStream(new BufferedInputStream(Sockets.inputStream(channel)));
+			out = new DataOutputStream(new BufferedOutputStream(Sockets.outputStream(channel)));
+		}
+	}
+
+	/** The workers that are still reachable. */
+	private List<Worker> workers = new ArrayList<Worker>();
+
+	/** The pool that runs our share of the search. */
+	private SearchPool pool;
+
+	/** The thread that does all the talking to the workers. */
+	private ExecutorService io = Executors.newSingleThreadExecutor(new ThreadFactory()
+	{
+		public Thread newThread(Runnable runnable)
+		{
+			Thread t = new Thread(runnable, "search-worker-io");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/**
+	 * Connects to the workers at the given addresses (see Sockets). Workers
+	 * that can't be reached are reported and left out.
+	 */
+	public DistributedSearch(String[] addresses, SearchPool pool)
+	{
+		this.pool = pool;
+		for (String address : addresses)
+		{
+			try
+			{
+				workers.add(new Worker(address));
+			}
+			catch (IOException e)
+			{
+				System.err.println("Can't reach search worker " + address + ": " + e);
+			}
+		}
+	}
+
+	/**
+	 * Runs the given number of iterations on the given tree locally and up to
+	 * the same number on every worker, then merges the workers' results into
+	 * the root.
+	 */
+	public synchronized void search(final TreeNode root, final int iterations)
+	        throws InterruptedException
+	{
+		final List<Worker> asked = new ArrayList<Worker>();
+		onIoThread(new Runnable()
+		{
+			public void run()
+			{
+				for (Worker w : new ArrayList<Worker>(workers))
+				{
+					try
+					{
+						SearchProtocol.writeRequest(w.out, root.board(), iterations);
+						asked.add(w);
+					}
+					catch (IOException e)
+					{
+						drop(w, e);
+					}
+				}
+			}
+		});
+
+		InterruptedException stopped = null;
+		try
+		{
+			pool.search(root, iterations);
+		}
+		catch (InterruptedException e)
+		{
+			// still collect the replies, or the connections get out of step
+			stopped = e;
+		}
+
+		onIoThread(new Runnable()
+		{
+			public void run()
+			{
+				for (Worker w : new ArrayList<Worker>(asked))
+				{
+					try
+					{
+						SearchProtocol.writeStop(w.out);
+					}
+					catch (IOException e)
+					{
+						drop(w, e);
+						asked.remove(w);
+					}
+				}
+				for (Worker w : asked)
+				{
+					try
+					{
+						SearchProtocol.readReply(w.in, root);
+					}
+					catch (IOException e)
+					{
+						drop(w, e);
+					}
+				}
+			}
+		});
+
+		if (stopped != null)
+			throw stopped;
+	}
+
+	/**
+	 * Runs the given task on the I/O thread and waits for it to finish, even
+	 * if this thread is interrupted meanwhile (the interrupt is kept).
+	 */
+	private void onIoThread(Runnable task)
+	{
+		SearchPool.awaitUninterruptibly(io.submit(task));
+	}
+
+	/** Forgets a worker that failed, so the search can carry on without it. */
+	private void drop(Worker w, IOException e)
+	{
+		System.err.println("Lost search worker " + w.address + ": " + e);
+		try
+		{
+			w.channel.close();
+		}
+		catch (IOException ignored)
+		{
+			// it's gone either way
+		}
+		workers.remove(w);
+	}
+
+	/** Tells every worker we're done and disconnects. */
+	public synchronized void close()
+	{
+		for (Worker w : workers)
+		{
+			try
+			{
+				w.out.writeByte(SearchProtocol.QUIT);
+				w.out.flush();
+				w.channel.close();
+			}
+			catch (IOException e)
+			{
+				// it's gone either way
+			}
+		}
+		workers.clear();
+		io.shutdown();
+	}
+}
@@ -0,0 +1,164 @@
+package destiny;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Serves many games of GTP at once from one JVM, one per connection, over a
+ * local TCP port or a Unix domain socket.
+ *
+ * Every session has its own Board and TreeNode, but they all share one
+ * SearchPool, so the number of threads actually running playouts stays fixed
+ * no matter how many games are connected.
+ *
+ * --offheap can't be combined with the other -- options, which all need
+ * TreeNodes.
+ *
+ * Usage: GtpServer (port | host:port | unix:path) [threads] [--book file] [--offheap nodes] [--widening] [--leaf-playouts n] [--leaf-threads n] [--solver ms]
+ */
+public class GtpServer
+{
+	private static final String USAGE = "usage: GtpServer (port | host:port | unix:path) [threads] [--book file] [--offheap nodes] [--widening] [--leaf-playouts n] [--leaf-threads n] [--solver ms]";
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 1)
+			usage(null);
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		int offHeapNodes = 0;
+		String treeNodeOption = null; // the last option only TreeNodes support
+		int i = 1;
+		try
+		{
+			// the thread count can only come right after the address
+			if (i < args.length && !args[i].startsWith("--"))
+			{
+				threads = Integer.parseInt(args[i]);
+				i++;
+			}
+			for (; i < args.length; i++)
+			{
+				if (!args[i].equals("--offheap"))
+					treeNodeOption = args[i];
+				if (args[i].equals("--book"))
+					TreeNode.useOpeningBook(new OpeningBook(value(args, ++i)));
+				else if (args[i].equals("--offheap"))
+					offHeapNodes = Integer.parseInt(value(args, ++i));
+				else if (args[i].equals("--widening"))
+					TreeNode.useProgressiveWidening(true);
+				else if (args[i].equals("--leaf-playouts"))
+					TreeNode.usePlayoutsPerLeaf(Integer.parseInt(value(args, ++i)));
+				else if (args[i].equals("--leaf-threads"))
+					TreeNode.useLeafThreads(Integer.parseInt(value(args, ++i)));
+				else if (args[i].equals("--solver"))
+					TreeNode.useSolver(Long.parseLong(value(args, ++i)));
+				else
+					usage("unknown option: " + args[i]);
+			}
+		}
+		catch (NumberFormatException e)
+		{
+			usage("not a number: " + args[i]);
+		}
+		if (offHeapNodes > 0 && treeNodeOption != null)
+		{
+			System.err.println("--offheap can't be combined with " + treeNodeOption);
+			System.exit(1);
+		}
+
+		GtpServer server = new GtpServer(args[0], new SearchPool(threads));
+		server.offHeapNodes = offHeapNodes;
+		server.serve();
+	}
+
+	/** Prints the given complaint, if any, and the usage, and exits. */
+	private static void usage(String complaint)
+	{
+		if (complaint != null)
+			System.err.println(complaint);
+		System.err.println(USAGE);
+		System.exit(1);
+	}
+
+	/** @return args[i], the value of the option before it, if there is one. */
+	private static String value(String[] args, int i)
+	{
+		if (i == args.length)
+			usage(args[i - 1] + " needs a value");
+		return args[i];
+	}
+
+	/** The socket we accept connections on. */
+	private ServerSocketChannel server;
+
+	/** The pool shared by every session. */
+	private SearchPool pool;
+
+	/**
+	 * The number of nodes in each session's OffHeapTree, or 0 to use
+	 * TreeNodes.
+	 */
+	private int offHeapNodes = 0;
+
+	/** How many sessions have been started, for naming their threads. */
+	private int sessions = 0;
+
+	/** Binds a server to the given address (see Sockets). */
+	public GtpServer(String address, SearchPool pool) throws IOException
+	{
+		this.pool = pool;
+		server = Sockets.bind(address);
+		System.err.println("Destiny serving GTP on " + server.getLocalAddress());
+	}
+
+	/** Accepts connections forever, starting a session for each. */
+	public void serve() throws IOException
+	{
+		while (true)
+		{
+			final SocketChannel channel = server.accept();
+
+			// the session thread spends nearly all its time blocked on
+			// reading or waiting for the pool, so it costs little
+			Thread t = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					try
+					{
+						BufferedReader in = new BufferedReader(new InputStreamReader(
+						        Sockets.inputStream(channel), "US-ASCII"));
+						PrintStream out = new PrintStream(Sockets.outputStream(channel),
+						        false, "US-ASCII");
+						GtpSession session = new GtpSession(in, out, pool);
+						if (offHeapNodes > 0)
+							session.useOffHeapTree(offHeapNodes);
+						session.run();
+					}
+					catch (IOException e)
+					{
+						e.printStackTrace();
+					}
+					finally
+					{
+						try
+						{
+							channel.close();
+						}
+						catch (IOException e)
+						{
+							// nothing more to do
+						}
+					}
+				}
+			}, "gtp-session-" + sessions++);
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+}
@@ -0,0 +1,579 @@
+package destiny;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import static destiny.Board.*;
+
+/**
+ * One game of GTP: reads commands from a stream, plays them on its own Board
+ * and search tree, and writes the responses back.
+ *
+ * The searching itself is handed to a SearchPool, which may be shared with
+ * other sessions.
+ */
+public class GtpSession implements Runnable
+{
+	/** How many MCTS iterations are run for each genmove. */
+	private static final int PLAYOUTS_PER_MOVE = 10000;
+
+	/** The most candidate moves reported in each analysis line. */
+	private static final int ANALYSIS_CANDIDATES = 10;
+
+	/** The most moves reported in each principal variation. */
+	private static final int ANALYSIS_PV_LENGTH = 10;
+
+	/**
+	 * How many playouts the search must have recorded before its ownership is
+	 * trusted; with fewer, a search is run first.
+	 */
+	private static final int OWNERSHIP_MIN_PLAYOUTS = 1000;
+
+	/** Where the commands come from. */
+	private BufferedReader in;
+
+	/** Where the responses go. */
+	private PrintStream out;
+
+	/** The pool that runs our searches. */
+	private SearchPool pool;
+
+	/** The worker processes that share our searches, or null if none. */
+	private DistributedSearch distributed;
+
+	/** The current position. */
+	private Board board;
+
+	/** The root of the search tree for the current position. */
+	private SearchTree tree;
+
+	/**
+	 * The number of nodes an OffHeapTree may hold, or 0 to use TreeNodes
+	 * instead.
+	 */
+	private int offHeapNodes = 0;
+
+	/** The thread running the current search, or null if there isn't one. */
+	private Thread search;
+
+	/** The thread streaming analysis of the current search, or null if none. */
+	private Thread reporter;
+
+	/**
+	 * True if the current search is an lz-analyze, whose response is only
+	 * finished when the search stops.
+	 */
+	private boolean analyzing;
+
+	/** Makes a session on the given streams, starting with an empty 9x9 board. */
+	public GtpSession(BufferedReader in, PrintStream out, SearchPool pool)
+	{
+		this.in = in;
+		this.out = out;
+		this.pool = pool;
+		newGame(9);
+	}
+
+	/**
+	 * Makes a session that also spreads its searches over the given worker
+	 * processes.
+	 */
+	public GtpSession(BufferedReader in, PrintStream out, SearchPool pool,
+	        DistributedSearch distributed)
+	{
+		this(in, out, pool);
+		this.distributed = distributed;
+	}
+
+	/**
+	 * Keeps the search tree off the heap, in an OffHeapTree of the given number
+	 * of nodes, from the next game on. Analysis and distributed search only
+	 * work with TreeNodes, so they are left out in this mode: winrates and
+	 * lz-analyze answer with an error.
+	 */
+	public void useOffHeapTree(int nodes)
+	{
+		offHeapNodes = nodes;
+		newGame(board.width());
+	}
+
+	/** Throws away the current game and starts an empty one of the given width. */
+	private void newGame(int width)
+	{
+		board = new Board(width);
+		if (offHeapNodes == 0)
+			tree = new TreeNode(board);
+		else if (tree instanceof OffHeapTree)
+			((OffHeapTree) tree).reset(board); // reuse its memory
+		else
+			tree = new OffHeapTree(board, offHeapNodes);
+	}
+
+	/**
+	 * Handles commands until the stream ends or we're told to quit.
+	 *
+	 * Searches run on their own thread, so we keep reading while they do. A
+	 * "stop" ends the current search early; any other command waits for it
+	 * to finish first (or, for lz-analyze, ends it), so that responses stay
+	 * in order.
+	 */
+	public void run()
+	{
+		String input;
+
+		try
+		{
+			while ((input = in.readLine()) != null)
+			{
+				input = input.trim();
+				if (input.isEmpty())
+					continue;
+				if (input.equals("stop"))
+				{
+					finishSearch(true);
+					respond("= \n");
+					continue;
+				}
+				finishSearch(analyzing);
+				if (input.equals("quit"))
+				{
+					respond("= \n");
+					break;
+				}
+				try
+				{
+					handle(input);
+				}
+				catch (IllegalArgumentException e)
+				{
+					// includes NumberFormatException
+					respond("? syntax error\n");
+				}
+				catch (IndexOutOfBoundsException e)
+				{
+					// a missing argument
+					respond("? syntax error\n");
+				}
+				catch (RuntimeException e)
+				{
+					e.printStackTrace();
+					respond("? " + e.getMessage() + "\n");
+				}
+			}
+			finishSearch(analyzing);
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+		catch (InterruptedException e)
+		{
+			// we're being shut down
+		}
+		finally
+		{
+			if (search != null)
+				search.interrupt();
+			out.flush();
+		}
+	}
+
+	/** Writes a whole response at once, so it can't interleave with analysis. */
+	private void respond(String response)
+	{
+		synchronized (out)
+		{
+			out.println(response);
+			out.flush();
+		}
+	}
+
+	/**
+	 * Starts searching the current tree on its own thread.
+	 *
+	 * @param iterations
+	 *            how many iterations to run
+	 * @param play
+	 *            if true, play and respond with the favorite move afterwards
+	 * @param interval
+	 *            if positive, stream analysis every this many centiseconds
+	 */
+	private void startSearch(final int iterations, final boolean play, final int interval)
+	{
+		final SearchTree root = tree;
+		search = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					if (distributed != null && root instanceof TreeNode)
+						distributed.search((TreeNode) root, iterations);
+					else
+						pool.search(root, iterations);
+				}
+				catch (InterruptedException e)
+				{
+					// stopped early, which is fine
+				}
+				catch (RuntimeException e)
+				{
+					// keep the session going, and still answer a genmove
+					e.printStackTrace();
+					if (play)
+						respond("? " + e.getMessage() + "\n");
+					return;
+				}
+				if (play)
+					playFavoriteMove();
+			}
+		}, Thread.currentThread().getName() + "-search");
+		search.start();
+
+		if (interval > 0)
+		{
+			reporter = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					try
+					{
+						while (true)
+						{
+							Thread.sleep(10L * interval);
+							String info = analysis(root);
+							synchronized (out)
+							{
+								out.println(info);
+								out.flush();
+							}
+						}
+					}
+					catch (InterruptedException e)
+					{
+						// the search is over
+					}
+				}
+			}, Thread.currentThread().getName() + "-analysis");
+			reporter.setDaemon(true);
+			reporter.start();
+		}
+	}
+
+	/**
+	 * Waits for the current search, if any, to finish, stopping it first if
+	 * asked to. Ends the response of an lz-analyze.
+	 */
+	private void finishSearch(boolean stop) throws InterruptedException
+	{
+		if (search == null)
+			return;
+		if (stop)
+			search.interrupt();
+		search.join();
+		search = null;
+
+		if (reporter != null)
+		{
+			reporter.interrupt();
+			reporter.join();
+			reporter = null;
+		}
+
+		if (analyzing)
+		{
+			respond("");
+			analyzing = false;
+		}
+	}
+
+	/** Plays the favorite move of the current tree and responds with it. */
+	private void playFavoriteMove()
+	{
+		int move = tree.favoriteMove();
+		if (move != PASS && tree instanceof TreeNode)
+		{
+			TreeNode child = ((TreeNode) tree).child(move);
+			System.err.println(board.pointToString(move));
+			System.err.println(child.wins() + "/" + child.visits() + "="
+			        + (child.wins() + 0.0) / child.visits());
+			System.err.flush();
+		}
+		tree.chooseMove(move);
+		respond("= " + board.pointToString(move) + "\n");
+	}
+
+	/**
+	 * @return a snapshot of the search at the given root in lz-analyze
+	 *         format: the visited moves, most visited first, each with its
+	 *         visits, win rate (in hundredths of a percent) and principal
+	 *         variation.
+	 * 
+	 *         The tree is read while it is being searched, without locking,
+	 *         so the numbers may be a few playouts stale. Only TreeNodes can
+	 *         be analyzed; any other tree gives an empty snapshot.
+	 */
+	private String analysis(SearchTree tree)
+	{
+		if (!(tree instanceof TreeNode))
+			return "";
+		TreeNode root = (TreeNode) tree;
+		Board b = root.board();
+		List<TreeNode> candidates = new ArrayList<TreeNode>();
+		final List<Integer> moves = new ArrayList<Integer>();
+		for (int pt = 0; pt < b.area(); pt++)
+		{
+			TreeNode child = root.child(pt);
+			if (child != null && child.visits() > 0)
+			{
+				candidates.add(child);
+				moves.add(pt);
+			}
+		}
+
+		Integer[] order = new Integer[candidates.size()];
+		final int[] visits = new int[candidates.size()];
+		for (int i = 0; i < order.length; i++)
+		{
+			order[i] = i;
+			visits[i] = candidates.get(i).visits();
+		}
+		Arrays.sort(order, new Comparator<Integer>()
+		{
+			public int compare(Integer a, Integer b)
+			{
+				return visits[b] - visits[a];
+			}
+		});
+
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < order.length && i < ANALYSIS_CANDIDATES; i++)
+		{
+			TreeNode child = candidates.get(order[i]);
+			int v = visits[order[i]];
+			if (i > 0)
+				s.append(' ');
+			s.append("info move ").append(b.pointToString(moves.get(order[i])));
+			s.append(" visits ").append(v);
+			s.append(" winrate ").append((int) (10000L * child.wins() / v));
+			s.append(" order ").append(i);
+			s.append(" pv ").append(b.pointToString(moves.get(order[i])));
+			for (int depth = 1; depth < ANALYSIS_PV_LENGTH; depth++)
+			{
+				int best = PASS;
+				int bestVisits = 0;
+				for (int pt = 0; pt < b.area(); pt++)
+				{
+					TreeNode grandchild = child.child(pt);
+					if (grandchild != null && grandchild.visits() > bestVisits)
+					{
+						best = pt;
+						bestVisits = grandchild.visits();
+					}
+				}
+				if (best == PASS)
+					break;
+				s.append(' ').append(b.pointToString(best));
+				child = child.child(best);
+			}
+		}
+		return s.toString();
+	}
+
+	/**
+	 * @return who owns each point of the current position, from the playouts
+	 *         the search has already run, searching first if it hasn't run
+	 *         enough.
+	 * 
+	 *         Once the game is over, dead stones are still on the board, so the
+	 *         search is run from before the final passes instead.
+	 */
+	private Ownership ownership() throws InterruptedException
+	{
+		Board position = tree.board();
+		if (position.gameIsOver())
+		{
+			int end = position.moveCount();
+			while (end > 0 && position.move(end - 1) == PASS)
+				end--;
+			Board replay = new Board(position.width());
+			for (int i = 0; i < end; i++)
+				replay.play(position.move(i), true);
+			return unsolvedOwnership(replay);
+		}
+
+		if (tree.ownership().playouts() < OWNERSHIP_MIN_PLAYOUTS)
+			pool.search(tree, PLAYOUTS_PER_MOVE);
+		if (tree.ownership().playouts() < OWNERSHIP_MIN_PLAYOUTS)
+			return unsolvedOwnership(new Board(position)); // proven, so not played out
+		return tree.ownership();
+	}
+
+	/**
+	 * @return who owns each point of the given position, from a search of a
+	 *         new tree that the Solver is kept out of, since iterations through
+	 *         proven nodes back up the proof instead of playing out.
+	 */
+	private Ownership unsolvedOwnership(Board position) throws InterruptedException
+	{
+		TreeNode search = new TreeNode(position);
+		search.skipSolver();
+		pool.search(search, PLAYOUTS_PER_MOVE);
+		return search.ownership();
+	}
+
+	/** Handles a single command, when no search is running. */
+	private void handle(String input) throws InterruptedException
+	{
+		if (input.equals("name"))
+		{
+			out.println("= Destiny\n");
+		}
+		else if (input.equals("protocol_version"))
+		{
+			out.println("= 2\n");
+		}
+		else if (input.equals("version"))
+		{
+			out.println("= 0.1\n");
+		}
+		else if (input.equals("list_commands"))
+		{
+			out.println("= boardsize\nclear_board\nfinal_status_list\ngenmove\nkomi\nlist_commands\n"
+			        + "lz-analyze\nname\nownership\nplay\nprotocol_version\nquit\nshowboard\nstop\n"
+			        + "version\nwinrates\n");
+		}
+		else if (input.startsWith("boardsize"))
+		{
+			int width = Integer.parseInt(input.substring(10).trim());
+			if (width < 2 || width > MAX_WIDTH)
+			{
+				out.println("? unacceptable size\n");
+			}
+			else
+			{
+				newGame(width);
+				out.println("= \n");
+			}
+		}
+		else if (input.equals("clear_board"))
+		{
+			newGame(board.width());
+			out.println("= \n");
+		}
+		else if (input.startsWith("komi"))
+		{
+			out.println("= \n");
+		}
+		else if ((input.equals("winrates") || input.startsWith("lz-analyze"))
+		        && !(tree instanceof TreeNode))
+		{
+			out.println("? analysis needs an on-heap tree, not --offheap\n");
+		}
+		else if (input.equals("winrates"))
+		{
+			out.println("= " + analysis(tree) + "\n");
+		}
+		else if (input.startsWith("lz-analyze"))
+		{
+			// lz-analyze [color] [interval]: search until the next command,
+			// reporting every interval centiseconds
+			int interval = 100;
+			for (String arg : input.substring(10).trim().split("\\s+"))
+			{
+				if (!arg.isEmpty() && Character.isDigit(arg.charAt(0)))
+					interval = Math.max(1, Integer.parseInt(arg));
+			}
+			out.println("= ");
+			out.flush();
+			analyzing = true;
+			startSearch(Integer.MAX_VALUE, false, interval);
+		}
+		else if (input.startsWith("genmove"))
+		{
+			startSearch(PLAYOUTS_PER_MOVE, true, 0);
+		}
+		else if (input.startsWith("play"))
+		{
+			// play color vertex
+			String[] args = input.split("\\s+");
+			if (args.length != 3)
+				throw new IllegalArgumentException(input);
+			int move = tree.board().stringToPoint(args[2].toUpperCase());
+			if (move != PASS && !tree.board().isLegal(move))
+			{
+				out.println("? illegal move\n");
+			}
+			else
+			{
+				tree.chooseMove(move);
+				out.println("= \n");
+			}
+		}
+		else if (input.startsWith("final_status_list"))
+		{
+			// final_status_list alive|dead: the strings of that status, one
+			// per line; a stone is dead if the other color owns its point in
+			// most playouts
+			String status = input.substring(17).trim();
+			if (!status.equals("alive") && !status.equals("dead"))
+			{
+				out.println("? syntax error\n");
+			}
+			else
+			{
+				Ownership ownership = ownership();
+				Board b = tree.board();
+				StringBuilder s = new StringBuilder();
+				for (int pt = 0; pt < b.area(); pt++)
+				{
+					int c = b.color(pt);
+					if (c == EMPTY || b.chainHead(pt) != pt)
+						continue; // not a stone, or not the head of its chain
+					boolean dead = ownership.owner(pt) == BLACK + WHITE - c;
+					if (dead != status.equals("dead"))
+						continue;
+					String separator = s.length() > 0 ? "\n" : "";
+					for (int stone : b.chain(pt))
+					{
+						s.append(separator).append(b.pointToString(stone));
+						separator = " ";
+					}
+				}
+				out.println("= " + s + "\n");
+			}
+		}
+		else if (input.equals("ownership"))
+		{
+			// how much BLACK owns each point, from 1 to -1 (WHITE), laid out
+			// like showboard
+			Ownership ownership = ownership();
+			Board b = tree.board();
+			out.println("= ");
+			for (int r = 0; r < b.width(); r++)
+			{
+				StringBuilder row = new StringBuilder();
+				for (int c = 0; c < b.width(); c++)
+					row.append(String.format("%6.2f", ownership.ownership(b.pointFromRowAndColumn(r, c))));
+				out.println(row);
+			}
+			out.println();
+		}
+		else if (input.equals("showboard"))
+		{
+			out.println("= ");
+			out.println(tree.board());
+			out.println();
+		}
+		else
+		{
+			out.println("? unknown command\n");
+		}
+		out.flush();
+	}
+}
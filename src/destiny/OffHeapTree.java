@@ -0,0 +1,365 @@
+package destiny;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static destiny.Board.*;
+
+/**
+ * An MCTS search tree whose nodes live outside the Java heap, so that a tree of
+ * millions of nodes costs the garbage collector nothing to scan.
+ *
+ * A node is just its visits, wins, move, and the index and number of its
+ * children, which are allocated side by side. Nodes don't keep a Board; each
+ * iteration replays the moves from the root on a scratch board instead.
+ *
+ * Nodes are allocated in order from one of two arenas of direct memory. When
+ * a move is chosen, the subtree below it is copied into the other arena and
+ * the old one is reset, which frees every other node at once. The arenas are
+ * allocated once and reused for the life of the tree. If an arena fills up,
+ * the tree simply stops growing until the next move.
+ */
+public class OffHeapTree implements SearchTree
+{
+	/** The fields of a node, as offsets in ints. */
+	private static final int VISITS = 0, WINS = 1, MOVE = 2, FIRST_CHILD = 3, CHILD_COUNT = 4;
+
+	/** The size of a node, in ints. */
+	private static final int NODE_INTS = 5;
+
+	/** The CHILD_COUNT of a node that hasn't been expanded. */
+	private static final int UNEXPANDED = -1;
+
+	/**
+	 * A tiny value used to prevent division by 0 and to nudge UCT values to
+	 * break ties.
+	 */
+	private static final double EPSILON = 1e-6;
+
+	/** Our random number generator. */
+	private static Random r = new Random();
+
+	/** A block of direct memory that nodes are allocated from, in order. */
+	private static class Arena
+	{
+		/** The nodes, NODE_INTS ints each. */
+		IntBuffer nodes;
+
+		/** The most nodes that fit. */
+		int capacity;
+
+		/** The index of the next free node. */
+		int top;
+
+		Arena(int capacity)
+		{
+			long bytes = (long) capacity * NODE_INTS * 4;
+			if (capacity < 1 || bytes > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("An arena can hold 1 to "
+				        + Integer.MAX_VALUE / (NODE_INTS * 4) + " nodes, not " + capacity);
+			this.capacity = capacity;
+			nodes = ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder())
+			        .asIntBuffer();
+		}
+
+		/** @return the first of count new nodes in a row, or -1 if they don't fit. */
+		int allocate(int count)
+		{
+			if (top + count > capacity)
+				return -1;
+			int first = top;
+			top += count;
+			return first;
+		}
+
+		int get(int node, int field)
+		{
+			return nodes.get(node * NODE_INTS + field);
+		}
+
+		void set(int node, int field, int value)
+		{
+			nodes.put(node * NODE_INTS + field, value);
+		}
+
+		/** Sets up a new unvisited, unexpanded node for the given move. */
+		void init(int node, int move)
+		{
+			set(node, VISITS, 0);
+			set(node, WINS, 0);
+			set(node, MOVE, move);
+			set(node, FIRST_CHILD, -1);
+			set(node, CHILD_COUNT, UNEXPANDED);
+		}
+	}
+
+	/** The arena the tree is in. */
+	private Arena arena;
+
+	/** The arena the tree is copied into when a move is chosen. */
+	private Arena spare;
+
+	/** The index of the root node in the arena. */
+	private int root;
+
+	/** The position at the root. */
+	private Board board;
+
+	/** The board each iteration plays its moves on. */
+	private Board scratch;
+
+	/** A buffer for legal moves during expansion. */
+	private int[] legal;
+
+	/** Who owned each point at the end of the playouts since the last move. */
+	private Ownership ownership;
+
+	/** The nodes visited by the current iteration, root first. */
+	private int[] path = new int[64];
+
+	/**
+	 * Makes a tree for (a copy of) the given position, with room for the given
+	 * number of nodes.
+	 */
+	public OffHeapTree(Board board, int capacity)
+	{
+		arena = new Arena(capacity);
+		spare = new Arena(capacity);
+		reset(board);
+	}
+
+	/** Throws the whole tree away, in O(1), and starts over at the given position. */
+	public void reset(Board board)
+	{
+		this.board = new Board(board);
+		this.scratch = new Board(board);
+		this.legal = new int[board.area()];
+		this.ownership = new Ownership(board.area());
+		clear();
+	}
+
+	/** Throws the whole tree away and starts over with just a root. */
+	private void clear()
+	{
+		arena.top = 0;
+		root = arena.allocate(1);
+		arena.init(root, PASS);
+	}
+
+	public Board board()
+	{
+		return board;
+	}
+
+	public Ownership ownership()
+	{
+		return ownership;
+	}
+
+	/** @return the number of nodes in the tree. */
+	public int size()
+	{
+		return arena.top - root;
+	}
+
+	public void singleIteration()
+	{
+		scratch.copyFrom(board);
+
+		int depth = 0;
+		int node = root;
+		path[depth++] = node;
+
+		// select the child with max UCT value until reaching a leaf
+		while (arena.get(node, CHILD_COUNT) > 0)
+		{
+			node = childWithMaxUCT(node);
+			scratch.play(arena.get(node, MOVE), true);
+			depth = visit(node, depth);
+		}
+
+		if (arena.get(node, VISITS) > 4 && arena.get(node, CHILD_COUNT) == UNEXPANDED
+		        && expand(node))
+		{
+			node = childWithMaxUCT(node);
+			scratch.play(arena.get(node, MOVE), true);
+			depth = visit(node, depth);
+		}
+
+		int winner = scratch.winner();
+		if (winner == EMPTY)
+			winner = scratch.playOut(); // the scratch board is ours to change
+		ownership.record(scratch);
+
+		// the root's wins are for the player who moved into it, and each
+		// level down alternates
+		int justMoved = BLACK + WHITE - board.playerToMove;
+		for (int i = 0; i < depth; i++)
+		{
+			arena.set(path[i], VISITS, arena.get(path[i], VISITS) + 1);
+			if (justMoved == winner)
+				arena.set(path[i], WINS, arena.get(path[i], WINS) + 1);
+			justMoved = BLACK + WHITE - justMoved;
+		}
+	}
+
+	/** Adds the given node to the path, and returns the new depth. */
+	private int visit(int node, int depth)
+	{
+		if (depth == path.length)
+			path = Arrays.copyOf(path, 2 * path.length);
+		path[depth] = node;
+		return depth + 1;
+	}
+
+	/**
+	 * Creates all legal children of the given node, whose position is on the
+	 * scratch board, leaving out moves symmetric to ones already made.
+	 *
+	 * @return true if there are any, false if none or the arena is full.
+	 */
+	private boolean expand(int node)
+	{
+		int count = scratch.distinctLegalMoves(legal);
+		int first = arena.allocate(count);
+		if (first == -1)
+			return false;
+		for (int i = 0; i < count; i++)
+			arena.init(first + i, legal[i]);
+		arena.set(node, FIRST_CHILD, first);
+		arena.set(node, CHILD_COUNT, count);
+		return count > 0;
+	}
+
+	/** @return the child of the given (expanded) node with the highest UCT value. */
+	private int childWithMaxUCT(int node)
+	{
+		int first = arena.get(node, FIRST_CHILD);
+		int count = arena.get(node, CHILD_COUNT);
+		double logVisits = Math.log(arena.get(node, VISITS) + 1);
+
+		int favoriteSoFar = first;
+		double bestUctValue = Double.MIN_VALUE;
+		for (int child = first; child < first + count; child++)
+		{
+			int visits = arena.get(child, VISITS);
+			double uctValue = (arena.get(child, WINS) + 1) / (visits + 2 + EPSILON) + 0.2
+			        * Math.sqrt(logVisits / (visits + EPSILON)) + r.nextDouble() * EPSILON;
+			if (uctValue > bestUctValue)
+			{
+				favoriteSoFar = child;
+				bestUctValue = uctValue;
+			}
+		}
+		return favoriteSoFar;
+	}
+
+	public int favoriteMove()
+	{
+		int favoriteMove = PASS;
+		int maxWins = -1;
+		int first = arena.get(root, FIRST_CHILD);
+		for (int child = first; child < first + arena.get(root, CHILD_COUNT); child++)
+		{
+			if (arena.get(child, WINS) > maxWins)
+			{
+				favoriteMove = arena.get(child, MOVE);
+				maxWins = arena.get(child, WINS);
+			}
+		}
+		return favoriteMove;
+	}
+
+	public void chooseMove(int move)
+	{
+		if (move != PASS && !board.isLegal(move))
+			throw new RuntimeException("Illegal move: " + board.pointToString(move));
+		ownership.clear();
+
+		// the child for the move, or else for a symmetric twin that expand()
+		// made instead, whose subtree is turned around to match
+		int kept = -1;
+		int symmetry = 0;
+		int symmetries = move == PASS ? 1 : board.symmetries();
+		int first = arena.get(root, FIRST_CHILD);
+		for (int child = first; child < first + arena.get(root, CHILD_COUNT) && kept == -1; child++)
+		{
+			int childMove = arena.get(child, MOVE);
+			if (childMove == move)
+				kept = child;
+			else if (childMove != PASS && move != PASS)
+			{
+				symmetry = board.symmetryTaking(childMove, move, symmetries);
+				if (symmetry != -1)
+					kept = child;
+			}
+		}
+
+		board.play(move, true);
+		if (kept == -1)
+		{
+			clear();
+			return;
+		}
+		if (arena.get(kept, MOVE) == move)
+			symmetry = 0;
+
+		// copy the subtree we keep, then drop the old arena in one go
+		spare.top = 0;
+		root = copySubtree(kept, symmetry);
+		Arena t = arena;
+		arena = spare;
+		spare = t;
+		spare.top = 0;
+	}
+
+	/**
+	 * Copies the subtree below the given node into the spare arena, with every
+	 * move moved by the given symmetry of Board.symmetricPoint().
+	 *
+	 * Nodes are copied breadth first, so each block of children is still side
+	 * by side. While a copied node waits its turn, its FIRST_CHILD holds the
+	 * index of the node it was copied from.
+	 *
+	 * @return the index of the copied node in the spare arena.
+	 */
+	private int copySubtree(int node, int symmetry)
+	{
+		int copy = spare.allocate(1);
+		copyNode(node, copy, symmetry);
+
+		for (int n = copy; n < spare.top; n++)
+		{
+			int original = spare.get(n, FIRST_CHILD);
+			int count = arena.get(original, CHILD_COUNT);
+			if (count <= 0)
+			{
+				spare.set(n, FIRST_CHILD, -1);
+				continue;
+			}
+			int first = spare.allocate(count); // can't fail: the copy is smaller
+			int from = arena.get(original, FIRST_CHILD);
+			for (int i = 0; i < count; i++)
+				copyNode(from + i, first + i, symmetry);
+			spare.set(n, FIRST_CHILD, first);
+		}
+		return copy;
+	}
+
+	/**
+	 * Copies a node into the spare arena, moving its move by the given
+	 * symmetry and remembering where it came from.
+	 */
+	private void copyNode(int from, int to, int symmetry)
+	{
+		int move = arena.get(from, MOVE);
+		spare.set(to, VISITS, arena.get(from, VISITS));
+		spare.set(to, WINS, arena.get(from, WINS));
+		spare.set(to, MOVE, move == PASS ? PASS : board.symmetricPoint(move, symmetry));
+		spare.set(to, FIRST_CHILD, from);
+		spare.set(to, CHILD_COUNT, arena.get(from, CHILD_COUNT));
+	}
+}
@@ -0,0 +1,222 @@
+package destiny;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Search statistics for opening positions, saved from earlier searches and
+ * memory-mapped from disk.
+ *
+ * The file is a header (MAGIC, the board width and the number of entries, all
+ * ints) followed by the entries, sorted by position hash and then move. Each
+ * entry is the Board.hash() of a position (a long), a move from it (a short),
+ * and that move's visits and wins (ints). Looking a position up is a binary
+ * search straight over the mapped file, so opening a book costs nothing no
+ * matter how big it is.
+ */
+public class OpeningBook
+{
+	/** The first four bytes of every book file ("DBK1"). */
+	private static final int MAGIC = 0x44424b31;
+
+	/** The size of the header, in bytes. */
+	private static final int HEADER_SIZE = 12;
+
+	/** The size of an entry, in bytes. */
+	private static final int ENTRY_SIZE = 18;
+
+	/** The mapped file. */
+	private MappedByteBuffer buffer;
+
+	/** The width of the board the book is for. */
+	private int width;
+
+	/** The number of entries in the book. */
+	private int size;
+
+	/** Maps the book at the given path. */
+	public OpeningBook(String path) throws IOException
+	{
+		FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.READ);
+		try
+		{
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		finally
+		{
+			channel.close(); // the mapping stays valid
+		}
+
+		if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+			throw new IOException("Not an opening book: " + path);
+		width = buffer.getInt(4);
+		size = buffer.getInt(8);
+		if (buffer.limit() < HEADER_SIZE + (long) size * ENTRY_SIZE)
+			throw new IOException("Truncated opening book: " + path);
+	}
+
+	public int width()
+	{
+		return width;
+	}
+
+	private long hashAt(int i)
+	{
+		return buffer.getLong(HEADER_SIZE + i * ENTRY_SIZE);
+	}
+
+	private int moveAt(int i)
+	{
+		return buffer.getShort(HEADER_SIZE + i * ENTRY_SIZE + 8);
+	}
+
+	private int visitsAt(int i)
+	{
+		return buffer.getInt(HEADER_SIZE + i * ENTRY_SIZE + 10);
+	}
+
+	private int winsAt(int i)
+	{
+		return buffer.getInt(HEADER_SIZE + i * ENTRY_SIZE + 14);
+	}
+
+	/** @return the index of the first entry for the given hash, or size if none. */
+	private int firstEntry(long hash)
+	{
+		int lo = 0;
+		int hi = size;
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (hashAt(mid) < hash)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Adds the book's statistics for the given (expanded) node's position to
+	 * its children, if the book has any. Each entry only counts playouts from
+	 * searches of its own position, so seeding one level never counts the
+	 * playouts of another.
+	 */
+	public void seed(TreeNode node)
+	{
+		Board board = node.board();
+		if (board.width() != width)
+			return;
+
+		long hash = board.hash();
+		int i = firstEntry(hash);
+		if (i >= size || hashAt(i) != hash)
+			return;
+		int symmetries = board.symmetries();
+		for (; i < size && hashAt(i) == hash; i++)
+			node.addBookStats(moveAt(i), visitsAt(i), winsAt(i), symmetries);
+	}
+
+	/** Collects book entries in memory and writes them out as a book file. */
+	public static class Builder
+	{
+		/** The width of the board the book is for. */
+		private int width;
+
+		/** Visits and wins, by position hash and then by move. */
+		private TreeMap<Long, TreeMap<Integer, int[]>> entries =
+		        new TreeMap<Long, TreeMap<Integer, int[]>>();
+
+		public Builder(int width)
+		{
+			this.width = width;
+		}
+
+		/** Adds visits and wins for the given move from the given position. */
+		public void add(long hash, int move, int visits, int wins)
+		{
+			TreeMap<Integer, int[]> moves = entries.get(hash);
+			if (moves == null)
+			{
+				moves = new TreeMap<Integer, int[]>();
+				entries.put(hash, moves);
+			}
+			int[] stats = moves.get(move);
+			if (stats == null)
+			{
+				stats = new int[2];
+				moves.put(move, stats);
+			}
+			stats[0] += visits;
+			stats[1] += wins;
+		}
+
+		/** Adds every entry of the given book. */
+		public void addBook(OpeningBook book)
+		{
+			if (book.width != width)
+				throw new IllegalArgumentException("Book is for width " + book.width
+				        + ", not " + width);
+			for (int i = 0; i < book.size; i++)
+				add(book.hashAt(i), book.moveAt(i), book.visitsAt(i), book.winsAt(i));
+		}
+
+		/**
+		 * Adds the children of the given node, and of its descendants down to
+		 * the given depth, that have at least minVisits visits.
+		 */
+		public void addTree(TreeNode node, int depth, int minVisits)
+		{
+			if (depth <= 0)
+				return;
+			Board board = node.board();
+			for (int pt = 0; pt < board.area(); pt++)
+			{
+				TreeNode child = node.child(pt);
+				if (child == null || child.visits() < minVisits)
+					continue;
+				add(board.hash(), pt, child.visits(), child.wins());
+				addTree(child, depth - 1, minVisits);
+			}
+		}
+
+		/** Writes the collected entries as a book file. */
+		public void write(String path) throws IOException
+		{
+			int size = 0;
+			for (TreeMap<Integer, int[]> moves : entries.values())
+				size += moves.size();
+
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+			        new FileOutputStream(path)));
+			try
+			{
+				out.writeInt(MAGIC);
+				out.writeInt(width);
+				out.writeInt(size);
+				for (Map.Entry<Long, TreeMap<Integer, int[]>> e : entries.entrySet())
+				{
+					for (Map.Entry<Integer, int[]> m : e.getValue().entrySet())
+					{
+						out.writeLong(e.getKey());
+						out.writeShort(m.getKey());
+						out.writeInt(m.getValue()[0]);
+						out.writeInt(m.getValue()[1]);
+					}
+				}
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+	}
+}
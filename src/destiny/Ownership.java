@@ -0,0 +1,104 @@
+package destiny;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static destiny.Board.*;
+
+/**
+ * Counts who owns each point at the end of the playouts of a search, so the
+ * search can tell which stones are alive or dead and whose territory is
+ * whose.
+ *
+ * Any number of threads may record playouts at once. Each thread counts into
+ * one of a few stripes, picked by its id, so threads rarely touch the same
+ * counters; the stripes are only added up when the counts are read. Recording
+ * a playout allocates nothing.
+ */
+public class Ownership
+{
+	/** The number of stripes (a power of 2). */
+	private static final int STRIPES = 8;
+
+	/**
+	 * The counters of each stripe: how often BLACK owned each point, then how
+	 * often WHITE did, then the number of playouts.
+	 */
+	private AtomicIntegerArray[] stripes = new AtomicIntegerArray[STRIPES];
+
+	/** The number of points on the board. */
+	private int area;
+
+	/** Makes an empty count for a board with the given number of points. */
+	public Ownership(int area)
+	{
+		this.area = area;
+		for (int i = 0; i < STRIPES; i++)
+			stripes[i] = new AtomicIntegerArray(2 * area + 1);
+	}
+
+	/** Counts the owners of the points of the given finished playout. */
+	public void record(Board playout)
+	{
+		AtomicIntegerArray counts = stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)];
+		for (int pt = 0; pt < area; pt++)
+		{
+			int owner = playout.owner(pt);
+			if (owner == BLACK)
+				counts.incrementAndGet(pt);
+			else if (owner == WHITE)
+				counts.incrementAndGet(area + pt);
+		}
+		counts.incrementAndGet(2 * area);
+	}
+
+	/** Forgets every playout recorded so far. */
+	public void clear()
+	{
+		for (AtomicIntegerArray counts : stripes)
+		{
+			for (int i = 0; i < counts.length(); i++)
+				counts.set(i, 0);
+		}
+	}
+
+	/** @return the number of playouts recorded. */
+	public int playouts()
+	{
+		return sum(2 * area);
+	}
+
+	/**
+	 * @return how much BLACK owns the given point, from 1 (in every playout) to
+	 *         -1 (WHITE does in every playout).
+	 */
+	public double ownership(int pt)
+	{
+		int playouts = playouts();
+		if (playouts == 0)
+			return 0;
+		return (sum(pt) - sum(area + pt)) / (double) playouts;
+	}
+
+	/**
+	 * @return the color that owns the given point in more than half of the
+	 *         playouts, or EMPTY if neither.
+	 */
+	public int owner(int pt)
+	{
+		int playouts = playouts();
+		if (2 * sum(pt) > playouts)
+			return BLACK;
+		if (2 * sum(area + pt) > playouts)
+			return WHITE;
+		return EMPTY;
+	}
+
+	/** @return the given counter, added up over the stripes. */
+	private int sum(int i)
+	{
+		int total = 0;
+		for (AtomicIntegerArray counts : stripes)
+			total += counts.get(i);
+		return total;
+	}
+}
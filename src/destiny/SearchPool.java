@@ -0,0 +1,110 @@
+package destiny;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A bounded pool of worker threads that runs MCTS iterations for any number of
+ * games at once.
+ *
+ * A search is cut into slices of a few hundred iterations, and each game only
+ * ever has one slice waiting in the pool's FIFO queue. So when there are more
+ * games searching than there are workers, they take turns round-robin instead
+ * of one game starving the others.
+ */
+public class SearchPool
+{
+	/** How many iterations are run per slice of work. */
+	private static final int SLICE = 250;
+
+	/** The worker threads. */
+	private ExecutorService executor;
+
+	/** Makes a pool with the given number of worker threads. */
+	public SearchPool(int threads)
+	{
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory()
+		{
+			private int count = 0;
+
+			public synchronized Thread newThread(Runnable runnable)
+			{
+				Thread t = new Thread(runnable, "search-worker-" + count++);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Runs the given number of iterations on the given tree, one slice at a
+	 * time, and returns when they're all done.
+	 *
+	 * Only one slice of a tree is ever running, so the tree itself doesn't need
+	 * to be thread-safe. If the calling thread is interrupted, the search stops
+	 * after the current slice and InterruptedException is thrown.
+	 */
+	public void search(final SearchTree root, int iterations) throws InterruptedException
+	{
+		int done = 0;
+		while (done < iterations)
+		{
+			final int slice = Math.min(SLICE, iterations - done);
+			done += slice;
+			Future<?> future = executor.submit(new Runnable()
+			{
+				public void run()
+				{
+					for (int i = 0; i < slice; i++)
+						root.singleIteration();
+				}
+			});
+			try
+			{
+				future.get();
+			}
+			catch (InterruptedException e)
+			{
+				// don't hand the tree back while a worker is still in it
+				awaitUninterruptibly(future);
+				throw e;
+			}
+			catch (ExecutionException e)
+			{
+				throw new RuntimeException(e.getCause());
+			}
+		}
+	}
+
+	/** Waits for the given task to finish, ignoring interrupts. */
+	static void awaitUninterruptibly(Future<?> future)
+	{
+		boolean interrupted = false;
+		while (!future.isDone())
+		{
+			try
+			{
+				future.get();
+			}
+			catch (InterruptedException e)
+			{
+				interrupted = true;
+			}
+			catch (ExecutionException e)
+			{
+				break;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/** Stops the worker threads once they finish their current slices. */
+	public void shutdown()
+	{
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,108 @@
+package destiny;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The binary protocol between a DistributedSearch coordinator and its
+ * SearchWorkers.
+ *
+ * A search request is the byte SEARCH, the board width and number of moves
+ * (shorts), the moves themselves (shorts, PASS included), and the number of
+ * iterations to run (an int). The reply is the number of root children that
+ * were visited (a short), then for each one its move (a short), visits and
+ * wins (ints).
+ *
+ * While a search is running, the byte STOP asks the worker to stop early and
+ * reply with what it has. Exactly one reply is sent per request either way,
+ * so a STOP that arrives after the search is over is simply ignored.
+ *
+ * A connection is closed by sending the byte QUIT.
+ */
+public class SearchProtocol
+{
+	/** Starts a search request. */
+	public static final byte SEARCH = 'S';
+
+	/** Stops the current search early. */
+	public static final byte STOP = 'X';
+
+	/** Ends the connection. */
+	public static final byte QUIT = 'Q';
+
+	/** Sends a request to search the given position. */
+	public static void writeRequest(DataOutputStream out, Board board, int iterations)
+	        throws IOException
+	{
+		out.writeByte(SEARCH);
+		out.writeShort(board.width());
+		out.writeShort(board.moveCount());
+		for (int i = 0; i < board.moveCount(); i++)
+			out.writeShort(board.move(i));
+		out.writeInt(iterations);
+		out.flush();
+	}
+
+	/** Asks for the current search to stop early. */
+	public static void writeStop(DataOutputStream out) throws IOException
+	{
+		out.writeByte(STOP);
+		out.flush();
+	}
+
+	/**
+	 * Reads the position part of a search request (after the SEARCH byte) by
+	 * replaying its moves on an empty board.
+	 */
+	public static Board readPosition(DataInputStream in) throws IOException
+	{
+		Board board = new Board(in.readShort());
+		int moveCount = in.readShort();
+		for (int i = 0; i < moveCount; i++)
+		{
+			int move = in.readShort();
+			if (!board.play(move))
+				throw new IOException("Illegal move in request: " + board.pointToString(move));
+		}
+		return board;
+	}
+
+	/** Sends the statistics of the root's children back to the coordinator. */
+	public static void writeReply(DataOutputStream out, TreeNode root) throws IOException
+	{
+		int count = 0;
+		for (int pt = 0; pt < root.board().area(); pt++)
+		{
+			if (root.child(pt) != null && root.child(pt).visits() > 0)
+				count++;
+		}
+
+		out.writeShort(count);
+		for (int pt = 0; pt < root.board().area(); pt++)
+		{
+			TreeNode child = root.child(pt);
+			if (child != null && child.visits() > 0)
+			{
+				out.writeShort(pt);
+				out.writeInt(child.visits());
+				out.writeInt(child.wins());
+			}
+		}
+		out.flush();
+	}
+
+	/** Reads a reply and adds its statistics into the given root. */
+	public static void readReply(DataInputStream in, TreeNode root) throws IOException
+	{
+		int count = in.readShort();
+		int symmetries = root.board().symmetries();
+		for (int i = 0; i < count; i++)
+		{
+			int pt = in.readShort();
+			int visits = in.readInt();
+			int wins = in.readInt();
+			root.addChildStats(pt, visits, wins, symmetries);
+		}
+	}
+}
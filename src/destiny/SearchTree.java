@@ -0,0 +1,26 @@
+package destiny;
+
+/**
+ * The root of an MCTS search tree for the current position, whichever way the
+ * tree is stored.
+ */
+public interface SearchTree
+{
+	/** @return the current position. */
+	Board board();
+
+	/** Perform a single MCTS iteration, updating the tree. */
+	void singleIteration();
+
+	/** @return the move with the most wins, or PASS if nothing else is legal. */
+	int favoriteMove();
+
+	/**
+	 * Plays the given move, keeping the part of the tree below it as the new
+	 * root.
+	 */
+	void chooseMove(int move);
+
+	/** @return who owned each point at the end of the playouts of this search. */
+	Ownership ownership();
+}
@@ -0,0 +1,153 @@
+package destiny;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A process that runs searches on behalf of a DistributedSearch coordinator.
+ *
+ * For each request it builds a fresh tree for the position it was sent, runs
+ * the requested number of iterations, and sends back the statistics of the
+ * root's children. See SearchProtocol for the wire format.
+ *
+ * Requests are read on a thread of their own, so that a STOP can reach the
+ * search while it runs.
+ *
+ * Usage: SearchWorker (port | host:port | unix:path)
+ */
+public class SearchWorker
+{
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 1)
+		{
+			System.err.println("usage: SearchWorker (port | host:port | unix:path)");
+			System.exit(1);
+		}
+
+		ServerSocketChannel server = Sockets.bind(args[0]);
+		System.err.println("Destiny search worker on " + server.getLocalAddress());
+		while (true)
+		{
+			SocketChannel channel = server.accept();
+			try
+			{
+				serve(channel);
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+			finally
+			{
+				channel.close();
+			}
+		}
+	}
+
+	/** A search request, as read off the connection. */
+	private static class Request
+	{
+		Board board;
+		int iterations;
+
+		/** Set when a STOP for this search arrives. */
+		volatile boolean stopped;
+	}
+
+	/** Queued when the coordinator quits or the connection fails. */
+	private static final Request END = new Request();
+
+	/** Answers search requests from one coordinator until it quits. */
+	public static void serve(SocketChannel channel) throws IOException
+	{
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(
+		        Sockets.inputStream(channel)));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+		        Sockets.outputStream(channel)));
+		final BlockingQueue<Request> requests = new LinkedBlockingQueue<Request>();
+
+		Thread reader = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					readRequests(in, requests);
+				}
+				catch (IOException e)
+				{
+					if (!(e instanceof EOFException))
+						e.printStackTrace();
+				}
+				finally
+				{
+					requests.add(END);
+				}
+			}
+		}, "request-reader");
+		reader.setDaemon(true);
+		reader.start();
+
+		while (true)
+		{
+			Request request;
+			try
+			{
+				request = requests.take();
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+			if (request == END)
+				return;
+
+			TreeNode root = new TreeNode(request.board);
+			for (int i = 0; i < request.iterations && !request.stopped; i++)
+				root.singleIteration();
+
+			SearchProtocol.writeReply(out, root);
+		}
+	}
+
+	/**
+	 * Reads requests until the coordinator quits, queueing the searches and
+	 * passing each STOP on to the last search queued.
+	 */
+	private static void readRequests(DataInputStream in, BlockingQueue<Request> requests)
+	        throws IOException
+	{
+		Request last = null;
+		while (true)
+		{
+			byte op = in.readByte();
+			if (op == SearchProtocol.QUIT)
+				return;
+			else if (op == SearchProtocol.STOP)
+			{
+				if (last != null)
+					last.stopped = true; // ignored if it's already over
+			}
+			else if (op == SearchProtocol.SEARCH)
+			{
+				last = new Request();
+				last.board = SearchProtocol.readPosition(in);
+				last.iterations = in.readInt();
+				requests.add(last);
+			}
+			else
+			{
+				throw new IOException("Unknown request: " + op);
+			}
+		}
+	}
+}
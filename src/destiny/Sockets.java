@@ -0,0 +1,114 @@
+package destiny;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Turns the socket addresses we take on the command line into channels.
+ *
+ * An address is one of:
+ * <ul>
+ * <li>"port": a TCP port on the loopback interface,</li>
+ * <li>"host:port": a TCP port on the given host, or</li>
+ * <li>"unix:path": a Unix domain socket at the given path.</li>
+ * </ul>
+ */
+public class Sockets
+{
+	/** Opens a server socket bound to the given address. */
+	public static ServerSocketChannel bind(String address) throws IOException
+	{
+		ServerSocketChannel server;
+		if (address.startsWith("unix:"))
+		{
+			Path path = Path.of(address.substring(5));
+			Files.deleteIfExists(path);
+			server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+			server.bind(UnixDomainSocketAddress.of(path));
+		}
+		else
+		{
+			server = ServerSocketChannel.open();
+			server.bind(inetAddress(address));
+		}
+		return server;
+	}
+
+	/** Opens a connection to the given address. */
+	public static SocketChannel connect(String address) throws IOException
+	{
+		if (address.startsWith("unix:"))
+			return SocketChannel.open(UnixDomainSocketAddress.of(address.substring(5)));
+		SocketChannel channel = SocketChannel.open(inetAddress(address));
+		channel.socket().setTcpNoDelay(true);
+		return channel;
+	}
+
+	/**
+	 * @return a stream that reads from the given (blocking) channel.
+	 *
+	 *         Unlike Channels.newInputStream(), it doesn't lock out writes to
+	 *         the channel while it waits for input, so one thread can read
+	 *         while another writes.
+	 */
+	public static InputStream inputStream(final SocketChannel channel)
+	{
+		return new InputStream()
+		{
+			public int read() throws IOException
+			{
+				byte[] b = new byte[1];
+				return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+			}
+
+			public int read(byte[] b, int off, int len) throws IOException
+			{
+				if (len == 0)
+					return 0;
+				return channel.read(ByteBuffer.wrap(b, off, len));
+			}
+		};
+	}
+
+	/**
+	 * @return a stream that writes to the given (blocking) channel, without
+	 *         locking out reads the way Channels.newOutputStream() does.
+	 */
+	public static OutputStream outputStream(final SocketChannel channel)
+	{
+		return new OutputStream()
+		{
+			public void write(int b) throws IOException
+			{
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			public void write(byte[] b, int off, int len) throws IOException
+			{
+				ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+				while (buffer.hasRemaining())
+					channel.write(buffer);
+			}
+		};
+	}
+
+	private static InetSocketAddress inetAddress(String address)
+	{
+		int colon = address.lastIndexOf(':');
+		if (colon == -1)
+			return new InetSocketAddress(InetAddress.getLoopbackAddress(),
+			        Integer.parseInt(address));
+		return new InetSocketAddress(address.substring(0, colon),
+		        Integer.parseInt(address.substring(colon + 1)));
+	}
+}
@@ -0,0 +1,205 @@
+package destiny;
+
+import static destiny.Board.*;
+
+/**
+ * Solves small positions exactly: finds out who wins with perfect play, if it
+ * can within a time limit.
+ *
+ * This is an iterative-deepening alpha-beta search. Since a result is just a
+ * win or a loss, it never needs to look past the first winning move. Every
+ * legal move (but only one of each set of symmetric moves) and PASS is tried,
+ * so a loss is only reported once every reply has been refuted. Results are
+ * kept in a transposition table keyed by the position's hash, ko point, pass
+ * state and board width, which together decide everything that can happen
+ * from here. So a proof found once is good for every later call, and the
+ * table is kept between calls.
+ *
+ * A Solver isn't thread-safe; use one per thread.
+ */
+public class Solver
+{
+	/** What winningMove() returns when no winning move has been proven. */
+	public static final int NO_MOVE = -2;
+
+	/** The deepest the search will go, in moves. */
+	private static final int MAX_DEPTH = 200;
+
+	/** How many nodes are searched between looks at the clock. */
+	private static final int NODES_PER_CLOCK_CHECK = 256;
+
+	/** The size of the transposition table (a power of 2). */
+	private static final int TABLE_SIZE = 1 << 18;
+
+	/** The keys of the positions in the transposition table. */
+	private long[] keys = new long[TABLE_SIZE];
+
+	/** The proven winner of each position in the table, or EMPTY if unknown. */
+	private byte[] winners = new byte[TABLE_SIZE];
+
+	/** For unproven positions, how deep they have been searched without a proof. */
+	private short[] depths = new short[TABLE_SIZE];
+
+	/** The winning (or last tried) move from each position in the table. */
+	private short[] bestMoves = new short[TABLE_SIZE];
+
+	/** A scratch board for each level of the search. */
+	private Board[] stack = new Board[MAX_DEPTH + 1];
+
+	/** A buffer of legal moves for each level of the search. */
+	private int[][] moveBuffers = new int[MAX_DEPTH + 1][];
+
+	/** When the current call has to give up, in System.nanoTime() terms. */
+	private long deadline;
+
+	/** True once the current call has run out of time. */
+	private boolean outOfTime;
+
+	/** The number of nodes searched in the current call. */
+	private int nodes;
+
+	/**
+	 * @return the color that wins the given position with perfect play, or
+	 *         EMPTY if that couldn't be proven within the given time.
+	 */
+	public int solve(Board board, long millis)
+	{
+		deadline = System.nanoTime() + millis * 1000000;
+		outOfTime = false;
+		nodes = 0;
+
+		for (int depth = 1; depth <= MAX_DEPTH && !outOfTime; depth++)
+		{
+			int winner = search(board, depth, 0);
+			if (winner != EMPTY)
+				return winner;
+		}
+		return EMPTY;
+	}
+
+	/**
+	 * @return the move the solver found to win the given position for the
+	 *         player to move (which may be PASS), or NO_MOVE if it hasn't
+	 *         proven one.
+	 */
+	public int winningMove(Board board)
+	{
+		long key = key(board);
+		int slot = slot(key);
+		if (keys[slot] == key && winners[slot] == board.playerToMove)
+			return bestMoves[slot];
+		return NO_MOVE;
+	}
+
+	/**
+	 * @return the winner of the given position, if a call so far has proven it
+	 *         and the proof is still in the table; otherwise EMPTY. Doesn't
+	 *         search.
+	 */
+	public int knownWinner(Board board)
+	{
+		long key = key(board);
+		int slot = slot(key);
+		if (keys[slot] == key)
+			return winners[slot];
+		return EMPTY;
+	}
+
+	/** @return the transposition-table key of the given board. */
+	private static long key(Board board)
+	{
+		long key = board.hash() ^ (board.koPoint() + 2) * 0x9e3779b97f4a7c15L
+		        ^ board.width() * 0xc2b2ae3d27d4eb4fL;
+		if (board.lastMoveWasPass())
+			key = ~key;
+		return key;
+	}
+
+	private static int slot(long key)
+	{
+		return (int) (key ^ (key >>> 32)) & (TABLE_SIZE - 1);
+	}
+
+	/**
+	 * @return the winner of the given position if it can be proven within
+	 *         the given number of moves, or EMPTY if not.
+	 */
+	private int search(Board board, int depth, int ply)
+	{
+		if (board.gameIsOver())
+			return board.winner();
+		if (depth == 0 || outOfTime)
+			return EMPTY;
+		if (++nodes % NODES_PER_CLOCK_CHECK == 0 && System.nanoTime() > deadline)
+		{
+			outOfTime = true;
+			return EMPTY;
+		}
+
+		long key = key(board);
+		int slot = slot(key);
+		int firstMove = NO_MOVE;
+		if (keys[slot] == key)
+		{
+			if (winners[slot] != EMPTY)
+				return winners[slot];
+			if (depths[slot] >= depth)
+				return EMPTY;
+			firstMove = bestMoves[slot];
+		}
+
+		if (stack[ply] == null)
+			stack[ply] = new Board(board);
+		if (moveBuffers[ply] == null || moveBuffers[ply].length <= board.area())
+			moveBuffers[ply] = new int[board.area() + 1];
+		Board child = stack[ply];
+		int[] moves = moveBuffers[ply];
+
+		// try the move that did best last time first, then the rest, then PASS
+		int count = board.distinctLegalMoves(moves);
+		moves[count++] = PASS;
+		for (int i = 0; i < count; i++)
+		{
+			if (moves[i] == firstMove)
+			{
+				moves[i] = moves[0];
+				moves[0] = firstMove;
+				break;
+			}
+		}
+
+		int toMove = board.playerToMove;
+		boolean unknown = false;
+		int lastMove = PASS;
+		for (int i = 0; i < count; i++)
+		{
+			child.copyFrom(board);
+			child.play(moves[i], true);
+			int winner = search(child, depth - 1, ply + 1);
+			if (winner == toMove)
+			{
+				store(key, slot, toMove, depth, moves[i]);
+				return toMove;
+			}
+			if (winner == EMPTY)
+			{
+				unknown = true;
+				lastMove = moves[i];
+				if (outOfTime)
+					return EMPTY;
+			}
+		}
+
+		int result = unknown ? EMPTY : BLACK + WHITE - toMove;
+		store(key, slot, result, depth, lastMove);
+		return result;
+	}
+
+	private void store(long key, int slot, int winner, int depth, int move)
+	{
+		keys[slot] = key;
+		winners[slot] = (byte) winner;
+		depths[slot] = (short) depth;
+		bestMoves[slot] = (short) move;
+	}
+}
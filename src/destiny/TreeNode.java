@@ -3,97 +3,66 @@ package destiny;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import static destiny.Board.*;
 
-public class TreeNode
+public class TreeNode implements SearchTree
 {
-	public static void main(String[] args)
+	public static void main(String[] args) throws IOException
 	{
-		Board board = new Board(9);
-		
-
-		TreeNode treeNode = new TreeNode(board);
-		BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
-		String input;
-
-		try
+		// a single game over stdin/stdout; see GtpServer for serving many.
+		// "--workers addr,addr,..." spreads each search over SearchWorkers;
+		// "--book file" seeds the tree from an opening book;
+		// "--offheap nodes" keeps the tree in an OffHeapTree instead, which
+		// can't be combined with any of the other options;
+		// "--widening" turns on progressive widening;
+		// "--leaf-playouts n" runs n playouts from each leaf reached;
+		// "--leaf-threads n" runs those playouts on n threads at once;
+		// "--solver ms" solves small positions exactly, ms per move.
+		SearchPool pool = new SearchPool(1);
+		DistributedSearch distributed = null;
+		int offHeapNodes = 0;
+		String treeNodeOption = null; // the last option only TreeNodes support
+		for (int i = 0; i < args.length; i++)
 		{
-			while ((input = br.readLine()) != null)
-			{
-				if (input.equals("name"))
-				{
-					System.out.println("= Destiny\n");
-				}
-				else if (input.equals("protocol_version"))
-				{
-					System.out.println("= 2\n");
-				}
-				else if (input.equals("version"))
-				{
-					System.out.println("= 0.1\n");
-				}
-				else if (input.equals("list_commands"))
-				{
-					System.out.println("= genmove\nplay\nname\nprotocol_version\nversion\nwinrates\n");
-				}
-				else if (input.startsWith("boardsize"))
-				{
-					System.out.println("= \n");
-				}
-				else if (input.equals("clear_board"))
-				{
-					System.out.println("= \n");
-				}
-				else if (input.startsWith("komi"))
-				{
-					System.out.println("= \n");
-				}
-				else if (input.equals("winrates"))
-				{
-					treeNode.expand();
-					System.out.print("=");
-					System.out.println(" " + treeNode.board.pointToString(2) + " "
-					+ (treeNode.children[2].wins + 0.0)
-					/ treeNode.children[2].visits);
-				}
-				else if (input.startsWith("genmove"))
-				{
-					int move = -1;
-					for (int i = 0; i < 2; i++)
-					{
-						for (int j = 0; j < 5000; j++)
-							treeNode.singleIteration();
-						move = treeNode.favoriteMove();
-					}
-					System.err.println(board.pointToString(move));
-					System.err.println(treeNode.children[move].wins + "/" + treeNode.children[move].visits + "=" + (treeNode.children[move].wins + 0.0) / treeNode.children[move].visits);
-					treeNode.chooseMove(move);
-					System.out.println("= " + board.pointToString(move) + "\n");
-					System.err.flush();
-				}
-				else if (input.startsWith("play"))
-				{
-					treeNode.expand();
-					// System.err.println(input.substring(7));
-					treeNode.chooseMove(board.stringToPoint(input.substring(7)));
-					System.out.println("= \n");
-				}
-				else if (input.equals("showboard"))
-				{
-					System.out.println("= ");
-					System.out.println(treeNode.board);
-					System.out.println();
-				}
-			}
+			if (args[i].startsWith("--") && !args[i].equals("--offheap"))
+				treeNodeOption = args[i];
+			if (args[i].equals("--workers") && i + 1 < args.length)
+				distributed = new DistributedSearch(args[++i].split(","), pool);
+			else if (args[i].equals("--book") && i + 1 < args.length)
+				useOpeningBook(new OpeningBook(args[++i]));
+			else if (args[i].equals("--offheap") && i + 1 < args.length)
+				offHeapNodes = Integer.parseInt(args[++i]);
+			else if (args[i].equals("--widening"))
+				useProgressiveWidening(true);
+			else if (args[i].equals("--leaf-playouts") && i + 1 < args.length)
+				usePlayoutsPerLeaf(Integer.parseInt(args[++i]));
+			else if (args[i].equals("--leaf-threads") && i + 1 < args.length)
+				useLeafThreads(Integer.parseInt(args[++i]));
+			else if (args[i].equals("--solver") && i + 1 < args.length)
+				useSolver(Long.parseLong(args[++i]));
 		}
-		catch (IOException e)
+		if (offHeapNodes > 0 && treeNodeOption != null)
 		{
-			e.printStackTrace();
+			System.err.println("--offheap can't be combined with " + treeNodeOption);
+			System.exit(1);
 		}
+
+		BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
+		GtpSession session = new GtpSession(br, System.out, pool, distributed);
+		if (offHeapNodes > 0)
+			session.useOffHeapTree(offHeapNodes);
+		session.run();
+
+		if (distributed != null)
+			distributed.close();
+		pool.shutdown();
 	}
 
 	public int generateMove(int playouts)
@@ -105,7 +74,7 @@ public class TreeNode
 		return pt;
 	}
 
-	private void chooseMove(int move)
+	public void chooseMove(int move)
 	{
 		if (move == PASS)
 		{
@@ -114,7 +83,11 @@ public class TreeNode
 			visits = 0;
 			wins = 0;
 			children = null;
+			order = null;
+			forgetProof();
 			expand();
+			if (ownership != null)
+				ownership.clear();
 		}
 		else if (!board.isLegal(move))
 		{
@@ -122,13 +95,28 @@ public class TreeNode
 		}
 		else
 		{
+			if (children == null)
+				expand();
+			if (children[move] == null)
+				adoptSymmetricChild(move);
+			if (children[move] == null)
+				children[move] = newChild(move); // not yet widened to
+
 			// change to this part of the tree
 			// System.err.println(move + " " + board.pointToString(move) + " " +
 			// children[move] + " " + children.length);
-			board = children[move].board;
-			visits = children[move].visits;
-			wins = children[move].wins;
-			children = children[move].children;
+			TreeNode child = children[move];
+			board = child.board;
+			visits = child.visits;
+			wins = child.wins;
+			children = child.children;
+			order = child.order;
+			admitted = child.admitted;
+			forgetProof();
+			if (ownership != null)
+				ownership.clear();
+			if (child.seededByBook && children != null && book != null)
+				book.seed(this); // with nothing above us, the counts can't disagree
 //			if (board.isInAtari(move))
 //				System.err.println(board.pointToString(board.soleLiberty(move)));
 		}
@@ -139,6 +127,54 @@ public class TreeNode
 	 */
 	private TreeNode[] children;
 
+	/**
+	 * With progressive widening, the legal moves from this node, best prior
+	 * first. Each entry is (prior << 24 | random tie-breaker << 16 | move).
+	 * Null if this node hasn't been expanded or widening is off.
+	 */
+	private int[] order;
+
+	/**
+	 * With progressive widening, how many of the moves in order have been
+	 * given children so far.
+	 */
+	private int admitted;
+
+	/**
+	 * True if the opening book seeded this node's stats as a child. Such a
+	 * node isn't seeded from the book itself until it becomes the root, since
+	 * its parent's visits don't include the book's counts for its children.
+	 */
+	private boolean seededByBook;
+
+	/**
+	 * The color that wins from this node with perfect play, if the Solver has
+	 * proven it, or EMPTY if not. Only the root and its children are ever
+	 * proven, and the root only if it's won for the player to move. Selection
+	 * doesn't go below a proven node, and its iterations back up the proven
+	 * result instead of playing out.
+	 */
+	private int proven = EMPTY;
+
+	/** For a proven root, the winning move (maybe PASS); otherwise NO_MOVE. */
+	private int provenMove = Solver.NO_MOVE;
+
+	/** For the root, true once the Solver has had its try at this position. */
+	private boolean solverTried;
+
+	/**
+	 * For the root, the fewest empty points of any position in this game the
+	 * Solver ran out of time on. Its budget isn't spent again until the board
+	 * has fewer.
+	 */
+	private int unsolvedEmpty = Integer.MAX_VALUE;
+
+	/**
+	 * For the root, who owned each point at the end of the playouts of the
+	 * search since the last move; created on first use.
+	 */
+	private Ownership ownership;
+
 	/** How many playouts have been run through this node. */
 	private int visits;
 
@@ -160,53 +196,538 @@ public class TreeNode
 	/** Our random number generator. */
 	private static Random r = new Random();
 
+	/**
+	 * If true, nodes expanded from now on only give children to their few best
+	 * moves at first (ranked by a cheap prior), and admit more as they get
+	 * more visits.
+	 */
+	private static boolean progressiveWidening = false;
+
+	/**
+	 * The number of children a node with v visits may have under progressive
+	 * widening is WIDEN_MIN + log(1 + v / WIDEN_BASE) / log(WIDEN_FACTOR).
+	 */
+	private static final int WIDEN_MIN = 2;
+	private static final double WIDEN_BASE = 20;
+	private static final double WIDEN_FACTOR = 1.4;
+
+	/** The priors, best last. */
+	private static final int PRIOR_NONE = 0, PRIOR_NEAR_LAST_MOVE = 1, PRIOR_ESCAPE = 2,
+	        PRIOR_CAPTURE = 3;
+
+	/**
+	 * The visits a child with any prior but PRIOR_NONE starts with. They're
+	 * only a bias on the child; its parent's visits stay the playouts really
+	 * run through it, for the log term of UCT.
+	 */
+	private static final int PRIOR_VISITS = 10;
+
+	/** The wins a child starts with, by prior. */
+	private static final int[] PRIOR_WINS = { 0, 6, 8, 9 };
+
+	/** Turns progressive widening on or off for nodes expanded from now on. */
+	public static void useProgressiveWidening(boolean on)
+	{
+		progressiveWidening = on;
+	}
+
+	/** The number of playouts run from each leaf an iteration reaches. */
+	private static int playoutsPerLeaf = 1;
+
+	/** Each thread's batch for running playouts from leaves. */
+	private static ThreadLocal<PlayoutBatch> batches = new ThreadLocal<PlayoutBatch>()
+	{
+		protected PlayoutBatch initialValue()
+		{
+			return new PlayoutBatch();
+		}
+	};
+
+	/**
+	 * Makes every iteration run the given number of playouts from the leaf it
+	 * reaches, and back them all up at once.
+	 */
+	public static void usePlayoutsPerLeaf(int playouts)
+	{
+		playoutsPerLeaf = playouts;
+	}
+
+	/**
+	 * The pool that runs the playouts from each leaf in parallel, or null to
+	 * run them on the searching thread.
+	 */
+	private static ForkJoinPool leafPool;
+
+	/**
+	 * Runs the playouts from each leaf on the given number of threads at once
+	 * (1 to run them on the searching thread). The tree itself is still only
+	 * touched by the searching thread; the threads just play out from the
+	 * leaf's board, which nobody changes while they do.
+	 */
+	public static void useLeafThreads(int threads)
+	{
+		if (leafPool != null)
+			leafPool.shutdown();
+		leafPool = threads > 1 ? new ForkJoinPool(threads) : null;
+	}
+
+	/**
+	 * Some of the playouts from a leaf, split in half and run in parallel until
+	 * there are at most chunk of them. Its result is {BLACK wins, WHITE wins}.
+	 */
+	private static class LeafPlayouts extends RecursiveTask<int[]>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private Board position;
+		private int playouts;
+		private int chunk;
+		private Ownership ownership;
+
+		LeafPlayouts(Board position, int playouts, int chunk, Ownership ownership)
+		{
+			this.position = position;
+			this.playouts = playouts;
+			this.chunk = chunk;
+			this.ownership = ownership;
+		}
+
+		protected int[] compute()
+		{
+			if (playouts <= chunk)
+			{
+				PlayoutBatch batch = batches.get(); // this worker's own
+				batch.run(position, playouts, ownership);
+				return new int[] { batch.wins(BLACK), batch.wins(WHITE) };
+			}
+			LeafPlayouts half = new LeafPlayouts(position, playouts / 2, chunk, ownership);
+			half.fork();
+			int[] wins = new LeafPlayouts(position, playouts - playouts / 2, chunk, ownership)
+			        .compute();
+			int[] otherWins = half.join();
+			wins[0] += otherWins[0];
+			wins[1] += otherWins[1];
+			return wins;
+		}
+	}
+
+	/**
+	 * How long the Solver may spend on the root of each move's search, in
+	 * milliseconds, if the position is small enough; 0 to not use it.
+	 */
+	private static long solverMillis = 0;
+
+	/**
+	 * Positions are only given to the Solver if the board has at most this
+	 * many empty points. Even empty 4x4 boards are too much for it.
+	 */
+	private static final int SOLVER_MAX_EMPTY = 10;
+
+	/** Each thread's solver, so their transposition tables last. */
+	private static ThreadLocal<Solver> solvers = new ThreadLocal<Solver>()
+	{
+		protected Solver initialValue()
+		{
+			return new Solver();
+		}
+	};
+
+	/**
+	 * Tries to solve each small position searched from now on exactly, once
+	 * per move, spending up to the given number of milliseconds (0 to turn
+	 * this off).
+	 */
+	public static void useSolver(long millis)
+	{
+		solverMillis = millis;
+	}
+
+	/** The book that newly expanded nodes are seeded from, or null if none. */
+	private static OpeningBook book;
+
+	/** Seeds every node expanded from now on from the given book (or none if null). */
+	public static void useOpeningBook(OpeningBook book)
+	{
+		TreeNode.book = book;
+	}
+
 	/** Makes a new TreeNode with the given board. */
 	public TreeNode(Board board)
 	{
 		this.board = board;
 	}
 
-	/** Creates all legal children of this node. */
+	/** @return the board associated with this node. */
+	public Board board()
+	{
+		return board;
+	}
+
+	/** @return the child for the given move, or null if none. */
+	public TreeNode child(int pt)
+	{
+		return children == null ? null : children[pt];
+	}
+
+	public Ownership ownership()
+	{
+		if (ownership == null)
+			ownership = new Ownership(board.area());
+		return ownership;
+	}
+
+	public int visits()
+	{
+		return visits;
+	}
+
+	public int wins()
+	{
+		return wins;
+	}
+
+	/**
+	 * Creates all legal children of this node, or with progressive widening,
+	 * ranks the legal moves and creates children for the best few. On a
+	 * symmetric board, only one of each set of symmetric moves is considered.
+	 */
 	public void expand()
 	{
 		children = new TreeNode[board.area()];
-		for (int pt = 0; pt < board.area(); pt++)
+		int[] legal = new int[board.area()];
+		int count = board.distinctLegalMoves(legal);
+		if (progressiveWidening)
 		{
-			Board copy = new Board(board);
-			if (copy.play(pt, true))
-				children[pt] = new TreeNode(copy);
-			// otherwise it stays null
+			order = rankByPrior(legal, count);
+			admitted = 0;
+			widen();
 		}
+		else
+		{
+			for (int i = 0; i < count; i++)
+				children[legal[i]] = newChild(legal[i]);
+		}
+		// the children for illegal moves, and for moves symmetric to ones
+		// that have children, stay null
+		if (book != null && !seededByBook)
+			book.seed(this);
 	}
 
-	/** @return the child with the highest UCT value, or null if no legal moves. */
+	/**
+	 * Gives the root's position to the Solver, if it's small enough. A proven
+	 * win for the player to move is kept. If the position is lost, the search
+	 * carries on as usual, to find the most stubborn defense. If the Solver
+	 * runs out of time, the children it did prove along the way are marked,
+	 * so selection stops sending playouts to the lost ones.
+	 */
+	private void solve()
+	{
+		solverTried = true;
+		int empty = board.emptyPoints().size();
+		if (empty > SOLVER_MAX_EMPTY)
+			return;
+		Solver solver = solvers.get();
+		if (empty >= unsolvedEmpty && solver.knownWinner(board) == EMPTY)
+			return; // no better chance than the last time it ran out
+		int winner = solver.solve(board, solverMillis);
+		if (winner == EMPTY)
+		{
+			unsolvedEmpty = empty;
+			markProvenChildren(solver);
+		}
+		else if (winner == board.playerToMove)
+		{
+			int move = solver.winningMove(board);
+			if (move != Solver.NO_MOVE) // unless pushed out of the table already
+				prove(move);
+		}
+	}
+
+	/**
+	 * Marks the children whose positions the Solver has proven. One proven to
+	 * win for the player to move proves this node too.
+	 */
+	private void markProvenChildren(Solver solver)
+	{
+		if (children == null)
+			expand();
+		for (int pt = 0; pt < children.length; pt++)
+		{
+			if (children[pt] == null)
+				continue;
+			children[pt].proven = solver.knownWinner(children[pt].board);
+			if (children[pt].proven == board.playerToMove)
+			{
+				prove(pt);
+				return;
+			}
+		}
+	}
+
+	/** Marks the root as won for the player to move, by the given move. */
+	private void prove(int move)
+	{
+		if (move != PASS)
+		{
+			if (children == null)
+				expand();
+			if (children[move] == null)
+				children[move] = newChild(move);
+		}
+		proven = board.playerToMove;
+		provenMove = move;
+	}
+
+	/**
+	 * Keeps the Solver out of the search of this root's position, e.g. when
+	 * it's searched for ownership, which proofs don't count.
+	 */
+	public void skipSolver()
+	{
+		solverTried = true;
+	}
+
+	/** Forgets what the Solver proved about the last position. */
+	private void forgetProof()
+	{
+		proven = EMPTY;
+		provenMove = Solver.NO_MOVE;
+		solverTried = false;
+	}
+
+	/** @return a new child for the given legal move. */
+	private TreeNode newChild(int pt)
+	{
+		Board copy = new Board(board);
+		copy.play(pt, true);
+		return new TreeNode(copy);
+	}
+
+	/**
+	 * If there's no child for the given move only because expand() left it
+	 * out for a symmetric move that has one, gives that child's subtree to
+	 * the given move instead, turned around to match, so the search done so
+	 * far isn't thrown away.
+	 */
+	private void adoptSymmetricChild(int move)
+	{
+		int symmetries = board.symmetries();
+		if (symmetries == 1)
+			return;
+		for (int s = 1; s < 8; s++)
+		{
+			if ((symmetries & 1 << s) == 0)
+				continue;
+			int twin = board.symmetricPoint(move, s);
+			if (children[twin] != null)
+			{
+				// the position stays as it is, so the symmetry that takes
+				// twin back to move takes the one subtree to the other
+				int back = board.symmetryTaking(twin, move, symmetries);
+				children[move] = turned(children[twin], back, newChild(move).board);
+				children[twin] = null;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return a copy of the subtree under node, with every move moved by the
+	 *         given symmetry of Board.symmetricPoint(), and board (the
+	 *         position of node so moved) at its top.
+	 */
+	private static TreeNode turned(TreeNode node, int symmetry, Board board)
+	{
+		TreeNode result = new TreeNode(board);
+		result.visits = node.visits;
+		result.wins = node.wins;
+		result.admitted = node.admitted;
+		result.seededByBook = node.seededByBook;
+		result.proven = node.proven;
+		if (node.order != null)
+		{
+			result.order = new int[node.order.length];
+			for (int i = 0; i < node.order.length; i++)
+			{
+				int entry = node.order[i];
+				result.order[i] = entry & ~0xffff
+				        | board.symmetricPoint(entry & 0xffff, symmetry);
+			}
+		}
+		if (node.children != null)
+		{
+			result.children = new TreeNode[node.children.length];
+			for (int pt = 0; pt < node.children.length; pt++)
+			{
+				if (node.children[pt] == null)
+					continue;
+				int moved = board.symmetricPoint(pt, symmetry);
+				Board copy = new Board(board);
+				copy.play(moved, true);
+				result.children[moved] = turned(node.children[pt], symmetry, copy);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the given legal moves, as entries of order, sorted so the best
+	 *         prior is last.
+	 */
+	private int[] rankByPrior(int[] legal, int count)
+	{
+		int[] priors = new int[board.area()];
+		int last = board.lastMove();
+		if (last != PASS)
+		{
+			for (int i = 0; i < count; i++)
+			{
+				int pt = legal[i];
+				if (Math.abs(board.rowIndex(pt) - board.rowIndex(last)) <= 2
+				        && Math.abs(board.columnIndex(pt) - board.columnIndex(last)) <= 2)
+					priors[pt] = PRIOR_NEAR_LAST_MOVE;
+			}
+		}
+		for (int pt : board.escapePoints())
+			priors[pt] = PRIOR_ESCAPE;
+		for (int pt : board.capturePoints())
+			priors[pt] = PRIOR_CAPTURE;
+
+		int[] ranked = new int[count];
+		for (int i = 0; i < count; i++)
+			ranked[i] = priors[legal[i]] << 24 | r.nextInt(256) << 16 | legal[i];
+		Arrays.sort(ranked);
+		return ranked;
+	}
+
+	/** Admits moves from order until there are as many as our visits allow. */
+	private void widen()
+	{
+		int allowed = WIDEN_MIN
+		        + (int) (Math.log(1 + visits / WIDEN_BASE) / Math.log(WIDEN_FACTOR));
+		while (admitted < order.length && admitted < allowed)
+		{
+			int entry = order[order.length - 1 - admitted++];
+			int pt = entry & 0xffff;
+			if (children[pt] != null)
+				continue; // already made, e.g. for the book
+			TreeNode child = newChild(pt);
+			int prior = entry >>> 24;
+			if (prior != PRIOR_NONE)
+			{
+				child.visits = PRIOR_VISITS;
+				child.wins = PRIOR_WINS[prior];
+			}
+			children[pt] = child;
+		}
+	}
+
+	/**
+	 * Adds the results of playouts run elsewhere (e.g. on another process)
+	 * through the child for the given move to that child and to this node.
+	 * 
+	 * @param symmetries
+	 *            board().symmetries(), which callers adding many children's
+	 *            stats at once need only work out once
+	 * @return the child the stats were added to, or null if none.
+	 */
+	public TreeNode addChildStats(int pt, int childVisits, int childWins, int symmetries)
+	{
+		if (children == null)
+			expand();
+		if (children[pt] == null)
+			pt = symmetricChildMove(pt, symmetries); // same stats
+		if (children[pt] == null && order != null && board.isLegal(pt))
+			children[pt] = newChild(pt); // not yet widened to
+		if (children[pt] == null)
+			return null; // not legal here, so the stats can't be ours
+		children[pt].visits += childVisits;
+		children[pt].wins += childWins;
+		visits += childVisits;
+		wins += childVisits - childWins;
+		return children[pt];
+	}
+
+	/**
+	 * Like addChildStats(), for stats from the opening book. The child is
+	 * marked, so that it isn't seeded from the book itself while it's below
+	 * this node, whose visits wouldn't include those.
+	 */
+	public void addBookStats(int pt, int childVisits, int childWins, int symmetries)
+	{
+		TreeNode child = addChildStats(pt, childVisits, childWins, symmetries);
+		if (child != null)
+			child.seededByBook = true;
+	}
+
+	/**
+	 * @return the move among pt and the moves the given symmetries take it to
+	 *         that has a child, or the canonical one if none does.
+	 */
+	private int symmetricChildMove(int pt, int symmetries)
+	{
+		for (int s = 1; s < 8; s++)
+		{
+			if ((symmetries & 1 << s) != 0 && children[board.symmetricPoint(pt, s)] != null)
+				return board.symmetricPoint(pt, s);
+		}
+		return board.canonicalPoint(pt, symmetries);
+	}
+
+	/**
+	 * @return the child with the highest UCT value, or null if no legal moves.
+	 *         Children proven to lose for the player to move are only chosen
+	 *         if nothing else is left.
+	 */
 	protected TreeNode childWithMaxUCT()
 	{
+		if (order != null)
+			widen();
+
 		TreeNode favoriteSoFar = null;
 		double bestUctValue = Double.MIN_VALUE;
+		TreeNode losingFavorite = null;
 		for (int pt : board.emptyPoints())
 		{
-			if (children[pt] == null)
+			TreeNode child = children[pt];
+			if (child == null)
+				continue;
+			if (child.proven != EMPTY && child.proven != board.playerToMove)
+			{
+				losingFavorite = child;
 				continue;
+			}
 			double uctValue = uctValueOfChild(pt);
 			if (uctValue > bestUctValue)
 			{
-				favoriteSoFar = children[pt];
+				favoriteSoFar = child;
 				bestUctValue = uctValue;
 			}
 		}
-		return favoriteSoFar;
+		return favoriteSoFar != null ? favoriteSoFar : losingFavorite;
 	}
 
-	/** @return the move with the most wins, or PASS if nothing else is legal. */
-	private int favoriteMove()
+	/**
+	 * @return the move the Solver proved wins, if any; otherwise the move with
+	 *         the most wins that isn't proven to lose, or PASS if nothing else
+	 *         is legal.
+	 */
+	public int favoriteMove()
 	{
+		if (provenMove != Solver.NO_MOVE)
+			return provenMove;
 		int favoriteMove = PASS;
 		int maxWins = -1;
+		int losingFavorite = PASS;
 		for (int pt : board.emptyPoints())
 		{
 			if (children[pt] == null)
 				continue;
+			if (children[pt].proven != EMPTY && children[pt].proven != board.playerToMove)
+			{
+				losingFavorite = pt;
+				continue;
+			}
 			int wins = children[pt].wins;
 			if (wins > maxWins)
 			{
@@ -214,26 +735,28 @@ public class TreeNode
 				maxWins = wins;
 			}
 		}
-		return favoriteMove;
+		return maxWins >= 0 ? favoriteMove : losingFavorite;
 	}
 
 	/** Perform a single MCTS iteration, updating the tree. */
-	protected void singleIteration()
+	public void singleIteration()
 	{
 		// every node in the tree that we visit (including the one we add)
 		List<TreeNode> visited = new LinkedList<TreeNode>();
 
 		visited.add(this);
+		if (solverMillis > 0 && !solverTried)
+			solve();
 
 		// recursively select child with max UCT value until reaching a leaf
 		TreeNode curr = this;
-		while (curr.children != null && curr.childWithMaxUCT() != null)
+		while (curr.proven == EMPTY && curr.children != null && curr.childWithMaxUCT() != null)
 		{
 			curr = curr.childWithMaxUCT();
 			visited.add(curr);
 		}
 
-		if (curr.visits > 4)
+		if (curr.proven == EMPTY && curr.visits > 4)
 		{
 			// expand this node and select the favorite child
 			curr.expand();
@@ -244,17 +767,40 @@ public class TreeNode
 			}
 		}
 
-		// get the result of a single playout from this new child
+		// get the result of playoutsPerLeaf playouts from this new child
 		assert curr != null : "curr is null in singleIteration()";
-		int winner = curr.board.winner();
-		if (winner == EMPTY)
+		int blackWins = 0;
+		int whiteWins = 0;
+		int winner = curr.proven != EMPTY ? curr.proven : curr.board.winner();
+		if (curr.board.gameIsOver())
+		{
+			// the game is already over, so this is how it ends every time
+			for (int i = 0; i < playoutsPerLeaf; i++)
+				ownership().record(curr.board);
+		}
+		if (winner == BLACK)
+			blackWins = playoutsPerLeaf;
+		else if (winner == WHITE)
+			whiteWins = playoutsPerLeaf;
+		else if (leafPool != null && playoutsPerLeaf > 1)
 		{
-			winner = curr.board.randomPlayout();
+			int chunk = Math.max(1, playoutsPerLeaf / leafPool.getParallelism());
+			int[] wins = leafPool.invoke(new LeafPlayouts(curr.board, playoutsPerLeaf, chunk,
+			        ownership()));
+			blackWins = wins[0];
+			whiteWins = wins[1];
+		}
+		else
+		{
+			PlayoutBatch batch = batches.get();
+			batch.run(curr.board, playoutsPerLeaf, ownership());
+			blackWins = batch.wins(BLACK);
+			whiteWins = batch.wins(WHITE);
 		}
 
-		// back up the result to every node visited
+		// back up the results to every node visited
 		for (TreeNode n : visited)
-			n.updateStats(winner);
+			n.updateStats(blackWins, whiteWins);
 	}
 	
 	public String toString(String indent)
@@ -284,10 +830,12 @@ public class TreeNode
 		        + r.nextDouble() * EPSILON;
 	}
 
-	protected void updateStats(int winner)
+	protected void updateStats(int blackWins, int whiteWins)
 	{
-		visits++;
-		if (BLACK + WHITE - board.playerToMove == winner)
-			wins++;
+		visits += blackWins + whiteWins;
+		if (BLACK + WHITE - board.playerToMove == BLACK)
+			wins += blackWins;
+		else
+			wins += whiteWins;
 	}
 }